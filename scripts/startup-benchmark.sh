@@ -0,0 +1,137 @@
+#!/usr/bin/env bash
+#
+# Compares the JVM and native builds on what matters for small, frequently restarted instances:
+#
+#   first-event ms  launch until the first event sent to /event/send has been published
+#   rss-idle MB     resident memory right after that first event
+#   rss-load MB     resident memory after a burst of events has been published
+#
+# Each build is started RUNS times from a clean state (no checkpoint to restore) and the median
+# is reported. Build both first:
+#
+#   ./mvnw package -DskipTests
+#   ./mvnw package -DskipTests -Dnative        (add -Dquarkus.native.container-build=true without GraalVM)
+#
+# Linux only (GNU date for millisecond timestamps). Needs curl.
+#
+# usage: scripts/startup-benchmark.sh [runs]
+#   PORT   http port to run on (default 8085)
+#   BURST  events sent for the under-load reading (default 200)
+#   MODES  which builds to measure (default "jvm native")
+
+set -euo pipefail
+
+cd "$(dirname "$0")/.."
+
+RUNS=${1:-5}
+PORT=${PORT:-8085}
+BURST=${BURST:-200}
+MODES=${MODES:-jvm native}
+BASE_URL="http://localhost:${PORT}"
+
+WORK_DIR=$(mktemp -d)
+APP_PID=
+trap 'stop_app; rm -rf "$WORK_DIR"' EXIT
+
+now_ms() {
+    date +%s%3N
+}
+
+rss_mb() {
+    # ps reports the resident set size in kB
+    echo $(( $(ps -o rss= -p "$1") / 1024 ))
+}
+
+published_count() {
+    curl -sf "${BASE_URL}/admin/sequencing/states" | grep -o '"PUBLISHED":[0-9]*' | cut -d: -f2 || echo 0
+}
+
+# wait until at least $1 events have been published, giving up after 60s
+await_published() {
+    local deadline=$(( $(now_ms) + 60000 ))
+    until [ "$(published_count)" -ge "$1" ]; do
+        if [ "$(now_ms)" -gt "$deadline" ]; then
+            echo "timed out waiting for $1 published events" >&2
+            return 1
+        fi
+        sleep 0.01
+    done
+}
+
+start_app() {
+    local mode=$1 log=$2
+    # a fresh checkpoint location per run so nothing is restored from a previous one
+    export VEST_CHECKPOINT_PATH="${WORK_DIR}/vest-history-$$-${RANDOM}.ckpt"
+    export QUARKUS_HTTP_PORT=$PORT
+    case $mode in
+        jvm)    java -jar target/quarkus-app/quarkus-run.jar >"$log" 2>&1 & ;;
+        native) "$NATIVE_RUNNER" >"$log" 2>&1 & ;;
+    esac
+    APP_PID=$!
+}
+
+stop_app() {
+    if [ -n "$APP_PID" ]; then
+        kill -TERM "$APP_PID" 2>/dev/null || true
+        wait "$APP_PID" 2>/dev/null || true
+        APP_PID=
+    fi
+}
+
+median() {
+    sort -n | awk '{ v[NR] = $1 } END { print (NR % 2) ? v[(NR + 1) / 2] : int((v[NR / 2] + v[NR / 2 + 1]) / 2) }'
+}
+
+measure() {
+    local mode=$1 run=$2
+    local log="${WORK_DIR}/${mode}-${run}.log"
+    local start
+    start=$(now_ms)
+    start_app "$mode" "$log"
+
+    # send the first event as soon as the http port accepts it
+    until curl -sf -o /dev/null "${BASE_URL}/event/send/startup/1"; do
+        if ! kill -0 "$APP_PID" 2>/dev/null; then
+            echo "${mode} exited during startup, see log:" >&2
+            cat "$log" >&2
+            exit 1
+        fi
+        sleep 0.005
+    done
+    await_published 1
+    local first_event=$(( $(now_ms) - start ))
+    local rss_idle
+    rss_idle=$(rss_mb "$APP_PID")
+
+    # one version per object, older versions of an object leave the history once a newer one is published
+    seq 1 "$BURST" | xargs -P 16 -I{} curl -sf -o /dev/null "${BASE_URL}/event/send/burst-{}/1"
+    await_published $(( BURST + 1 ))
+    local rss_load
+    rss_load=$(rss_mb "$APP_PID")
+
+    stop_app
+    echo "$first_event $rss_idle $rss_load"
+}
+
+NATIVE_RUNNER=$(ls target/*-runner 2>/dev/null | head -1 || true)
+
+printf '%-8s %16s %12s %12s\n' mode "first-event ms" "rss-idle MB" "rss-load MB"
+for mode in $MODES; do
+    case $mode in
+        jvm)
+            [ -f target/quarkus-app/quarkus-run.jar ] || { echo "no JVM build, run ./mvnw package first" >&2; continue; } ;;
+        native)
+            [ -n "$NATIVE_RUNNER" ] || { echo "no native build, run ./mvnw package -Dnative first" >&2; continue; } ;;
+        *)
+            echo "unknown mode $mode" >&2; continue ;;
+    esac
+
+    results="${WORK_DIR}/${mode}.txt"
+    for run in $(seq 1 "$RUNS"); do
+        measure "$mode" "$run" >>"$results"
+    done
+    printf '%-8s %16s %12s %12s\n' "$mode" \
+        "$(cut -d' ' -f1 "$results" | median)" \
+        "$(cut -d' ' -f2 "$results" | median)" \
+        "$(cut -d' ' -f3 "$results" | median)"
+done
@@ -0,0 +1,170 @@
+package org.acme;
+
+import java.util.Deque;
+import java.util.function.Consumer;
+
+/**
+ * Limits how many requests a pipeline stage may have outstanding, adjusting the limit from the
+ * latency it observes (gradient style, in the spirit of TCP Vegas / Netflix's gradient limiter).
+ * <p>
+ * While the smoothed latency stays close to the no-load latency the limit grows by about the square
+ * root of itself. Once requests start queueing downstream the latency rises, the gradient
+ * noLoadRtt / smoothedRtt drops below one and the limit shrinks back towards what the downstream
+ * can actually process. A request that is dropped, because it timed out or nothing was there to take
+ * it, backs the limit off straight away.
+ * <p>
+ * A downstream that is kept busy never shows its no-load latency, and one that has genuinely got
+ * slower would otherwise look congested forever. So every {@link #PROBE_INTERVAL} samples the
+ * limiter briefly halves its limit to let any downstream queue drain and takes the no-load latency
+ * afresh from the requests completed at that lower concurrency.
+ */
+public class AdaptiveLimiter {
+
+    // samples between re-measuring the no-load latency
+    static final int PROBE_INTERVAL = 500;
+    // samples taken at the reduced limit when probing
+    static final int PROBE_SAMPLES = 5;
+    // weight of a new sample in the smoothed latency
+    private static final double RTT_SMOOTHING = 0.1;
+    // weight of the newly calculated limit against the current one
+    private static final double LIMIT_SMOOTHING = 0.2;
+    // never cut the limit by more than half in one go
+    private static final double MIN_GRADIENT = 0.5;
+    private static final double BACKOFF_RATIO = 0.9;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+
+    private double limit;
+    private int inFlight;
+
+    private double smoothedRtt;
+    private long noLoadRtt;
+    private int samplesSinceProbe;
+
+    private boolean probing;
+    private int probeLimit;
+    private int probeSamples;
+    private long probeMinRtt;
+
+    public AdaptiveLimiter(String name, int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Invalid limits for " + name + ": min " + minLimit + " max " + maxLimit);
+        }
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * Take a slot if the stage is below its limit. Every successful acquire must be followed by
+     * {@link #onSuccess(long)}, {@link #onDropped()} or {@link #cancel()}.
+     */
+    public synchronized boolean tryAcquire() {
+        if (inFlight >= (probing ? probeLimit : (int) limit)) {
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * Hand queued requests to {@code send} for as long as there is room under the limit. The queue
+     * may be shared between threads, it is locked while taking from it.
+     */
+    public <T> void dispatch(Deque<T> pending, Consumer<T> send) {
+        while (tryAcquire()) {
+            T next;
+            synchronized (pending) {
+                next = pending.pollFirst();
+            }
+            if (next == null) {
+                cancel();
+                return;
+            }
+            send.accept(next);
+        }
+    }
+
+    /**
+     * The request completed, release its slot and feed its latency into the limit.
+     */
+    public synchronized void onSuccess(long rttNanos) {
+        int concurrency = inFlight--;
+
+        if (probing) {
+            // only requests completed once the concurrency has come down count
+            if (concurrency <= probeLimit) {
+                probeMinRtt = Math.min(probeMinRtt, rttNanos);
+                if (++probeSamples >= PROBE_SAMPLES) {
+                    noLoadRtt = probeMinRtt;
+                    probing = false;
+                }
+            }
+            return;
+        }
+
+        if (noLoadRtt == 0) {
+            noLoadRtt = rttNanos;
+            smoothedRtt = rttNanos;
+        } else {
+            noLoadRtt = Math.min(noLoadRtt, rttNanos);
+            smoothedRtt += (rttNanos - smoothedRtt) * RTT_SMOOTHING;
+        }
+        if (++samplesSinceProbe >= PROBE_INTERVAL) {
+            samplesSinceProbe = 0;
+            probing = true;
+            probeLimit = Math.max(minLimit, (int) limit / 2);
+            probeSamples = 0;
+            probeMinRtt = Long.MAX_VALUE;
+            return;
+        }
+
+        double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, noLoadRtt / smoothedRtt));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        // only grow when the limit is actually being used, otherwise it drifts up to the max while idle
+        if (newLimit > limit && concurrency < limit / 2) {
+            return;
+        }
+        setLimit(limit * (1 - LIMIT_SMOOTHING) + newLimit * LIMIT_SMOOTHING);
+    }
+
+    /**
+     * The request timed out or could not be delivered, release its slot and back off. A request the
+     * downstream answered, even with an error, is reported through {@link #onSuccess(long)}.
+     */
+    public synchronized void onDropped() {
+        inFlight--;
+        setLimit(limit * BACKOFF_RATIO);
+    }
+
+    /**
+     * The slot was acquired but never used, give it back without affecting the limit.
+     */
+    public synchronized void cancel() {
+        inFlight--;
+    }
+
+    private void setLimit(double newLimit) {
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "AdaptiveLimiter[" + name + " limit=" + (int) limit + " inFlight=" + inFlight + "]";
+    }
+}
@@ -0,0 +1,92 @@
+package org.acme;
+
+import jakarta.inject.Inject;
+import jakarta.ws.rs.BadRequestException;
+import jakarta.ws.rs.DefaultValue;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.MediaType;
+import org.acme.SequencingIndex.BlockedObject;
+import org.acme.SequencingIndex.EventSummary;
+import org.acme.SequencingIndex.ParkedVersion;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only view of the live sequencing state. Everything is answered from the
+ * {@link SequencingIndex} so the cost depends on the size of the answer, not the size of the history.
+ */
+@Path("/admin/sequencing")
+@Produces(MediaType.APPLICATION_JSON)
+public class AdminResource {
+
+    // the most any one query returns, so a single request can't walk a whole index
+    static final int MAX_LIMIT = 1000;
+
+    @Inject
+    SequencingIndex sequencingIndex;
+
+    /**
+     * Number of versions held in each processing state
+     */
+    @GET
+    @Path("states")
+    public Map<ProcessingState, Integer> stateCounts() {
+        return sequencingIndex.stateCounts();
+    }
+
+    /**
+     * Versions currently in the given state, e.g. /admin/sequencing/states/TRANSFORMED
+     * @param state
+     * @param limit maximum number of versions to return, at most {@link #MAX_LIMIT}
+     * @return
+     */
+    @GET
+    @Path("states/{state}")
+    public List<EventSummary> inState(final ProcessingState state,
+                                      @QueryParam("limit") @DefaultValue("100") final int limit) {
+        return sequencingIndex.inState(state, checkedLimit(limit));
+    }
+
+    /**
+     * Objects blocked waiting for a version that hasn't arrived, largest gap first
+     * @param limit maximum number of objects to return, at most {@link #MAX_LIMIT}
+     * @return
+     */
+    @GET
+    @Path("blocked")
+    public List<BlockedObject> blocked(@QueryParam("limit") @DefaultValue("100") final int limit) {
+        return sequencingIndex.blocked(checkedLimit(limit));
+    }
+
+    /**
+     * Transformed versions parked behind an earlier version, oldest first
+     * @param limit maximum number of versions to return, at most {@link #MAX_LIMIT}
+     * @return
+     */
+    @GET
+    @Path("parked")
+    public List<ParkedVersion> parked(@QueryParam("limit") @DefaultValue("100") final int limit) {
+        return sequencingIndex.parked(checkedLimit(limit));
+    }
+
+    /**
+     * The version that has been parked the longest, no content if nothing is parked
+     * @return
+     */
+    @GET
+    @Path("parked/oldest")
+    public ParkedVersion oldestParked() {
+        return sequencingIndex.oldestParked();
+    }
+
+    private static int checkedLimit(int limit) {
+        if (limit < 1) {
+            throw new BadRequestException("limit must be at least 1");
+        }
+        return Math.min(limit, MAX_LIMIT);
+    }
+}
@@ -3,38 +3,30 @@ package org.acme;
 import java.util.Date;
 
 import io.quarkus.runtime.StartupEvent;
-import io.vertx.mutiny.core.eventbus.EventBus;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.enterprise.event.Observes;
 import jakarta.inject.Inject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import static org.acme.Channels.INCOMING_EVENTS;
-
 @ApplicationScoped
 public class Consumer {
 
     private final static Logger logger = LoggerFactory.getLogger(Consumer.class);
 
     @Inject
-    EventBus eventBus;
+    Processor processor;
 
     public void sendToSequencer() {
         logger.info("Sending to processor");
         
-        // create a vest event
-        VestEvent vestEvent = new VestEvent();
-        vestEvent.setObjectId("ABC123");
-        vestEvent.setVersion(1);
-        vestEvent.setInputXml("<test>Sample XML</test>");
-        vestEvent.setCreated(new Date());
-        vestEvent.setState(ProcessingState.FRESH);
-
         // send the vest event to the processor
         System.out.println("sending message to the processor");
-        eventBus.send(INCOMING_EVENTS, vestEvent);
-        logger.info("Sent event to processor: {}", vestEvent.getObjectId());
+        if (!processor.submit("ABC123", 1, "<test>Sample XML</test>")) {
+            logger.warn("Shutting down - event {} not sent to processor", "ABC123");
+            return;
+        }
+        logger.info("Sent event to processor: {}", "ABC123");
     }
 
     public void onStart(@Observes StartupEvent event) {
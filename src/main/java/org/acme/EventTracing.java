@@ -0,0 +1,84 @@
+package org.acme;
+
+import io.opentelemetry.api.OpenTelemetry;
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.propagation.TextMapGetter;
+import io.opentelemetry.context.propagation.TextMapSetter;
+import io.vertx.core.MultiMap;
+import io.vertx.core.eventbus.DeliveryOptions;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+
+/**
+ * Tracing for an event version as it moves through the pipeline. The trace context is carried
+ * from hop to hop in the event bus message headers (W3C traceparent), so every span for a
+ * version - processor, transformer, publisher and post-publish - ends up in the same trace.
+ * Sampling is controlled with the usual quarkus.otel.traces.sampler settings.
+ */
+@Singleton
+public class EventTracing {
+
+    static final AttributeKey<String> OBJECT_ID = AttributeKey.stringKey("vest.object_id");
+    static final AttributeKey<Long>   VERSION   = AttributeKey.longKey("vest.version");
+    static final AttributeKey<String> STATE     = AttributeKey.stringKey("vest.state");
+
+    static final AttributeKey<Long> LAST_PROCESSED_VERSION = AttributeKey.longKey("vest.last_processed_version");
+
+    private static final TextMapGetter<MultiMap> HEADERS_GETTER = new TextMapGetter<>() {
+        @Override
+        public Iterable<String> keys(MultiMap headers) {
+            return headers.names();
+        }
+
+        @Override
+        public String get(MultiMap headers, String key) {
+            return headers == null ? null : headers.get(key);
+        }
+    };
+
+    private static final TextMapSetter<DeliveryOptions> HEADERS_SETTER = DeliveryOptions::addHeader;
+
+    @Inject
+    Tracer tracer;
+
+    @Inject
+    OpenTelemetry openTelemetry;
+
+    /**
+     * The trace context sent along with a message, or the root context if there wasn't one.
+     */
+    public Context extract(MultiMap headers) {
+        return openTelemetry.getPropagators().getTextMapPropagator()
+                .extract(Context.root(), headers, HEADERS_GETTER);
+    }
+
+    /**
+     * Delivery options carrying the given trace context in the message headers.
+     */
+    public DeliveryOptions deliveryOptions(Context context) {
+        return deliveryOptions(context, new DeliveryOptions());
+    }
+
+    /**
+     * Replace the trace headers on delivery options that are being reused with the given context.
+     */
+    public DeliveryOptions deliveryOptions(Context context, DeliveryOptions deliveryOptions) {
+        if (deliveryOptions.getHeaders() != null) {
+            deliveryOptions.getHeaders().clear();
+        }
+        openTelemetry.getPropagators().getTextMapPropagator().inject(context, deliveryOptions, HEADERS_SETTER);
+        return deliveryOptions;
+    }
+
+    public Span startSpan(String name, Context parent, VestEvent event) {
+        return tracer.spanBuilder(name)
+                .setParent(parent)
+                .setAttribute(OBJECT_ID, event.getObjectId())
+                .setAttribute(VERSION, event.getVersion())
+                .setAttribute(STATE, String.valueOf(event.getState()))
+                .startSpan();
+    }
+}
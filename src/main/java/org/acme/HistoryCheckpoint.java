@@ -0,0 +1,279 @@
+package org.acme;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * Writes the sequencing history (and the payloads it still needs) to a compact binary file on
+ * shutdown and reads it back on startup. What is written comes from a {@link Snapshot} the
+ * {@link Processor} takes on its event loop, never from the live history or {@link PayloadStore}.
+ * <p>
+ * The file is split into independent segments with an offset table up front, so both writing and
+ * loading can work on the segments in parallel. Segments are memory-mapped when loading.
+ * <pre>
+ * int magic, int formatVersion, int segmentCount
+ * segmentCount x (long offset, int length)
+ * segments: int historyCount, then per history
+ *     string objectId, byte messageGroup, long lastProcessedVersion, int eventCount, then per event
+ *         long version, byte state, byte messageGroup, byte hasPayload
+ *         [string eventId, string inputXml, string transformedXml, long created, long lastUpdated]
+ * </pre>
+ * Strings are an int byte length (-1 for null) followed by UTF-8, enums are ordinals (-1 for null)
+ * and timestamps are epoch millis.
+ */
+@Singleton
+public class HistoryCheckpoint {
+
+    private final static Logger logger = LoggerFactory.getLogger(HistoryCheckpoint.class);
+
+    static final int MAGIC          = 0x56455354; // "VEST"
+    static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_SIZE      = 12;
+    private static final int TABLE_ENTRY_SIZE = 12;
+
+    private static final ProcessingState[] STATES         = ProcessingState.values();
+    private static final MessageGroup[]    MESSAGE_GROUPS = MessageGroup.values();
+
+    /**
+     * The history to write, with copies of the payloads it still needs. Versions up to the last
+     * processed one have no payload in here.
+     */
+    public record Snapshot(Map<String, VestEventHistory> histories, Map<VestEvent, VestEventPayload> payloads) {
+    }
+
+    @Inject
+    PayloadStore payloadStore;
+
+    @ConfigProperty(name = "vest.checkpoint.path")
+    Optional<String> checkpointPath;
+
+    /**
+     * Write the history to the checkpoint file. The file is written alongside and then moved into
+     * place so a crash part way through never leaves a truncated checkpoint behind.
+     */
+    public void write(Snapshot snapshot) throws IOException {
+        if (checkpointPath.isEmpty()) {
+            logger.info("No checkpoint path configured, not writing a checkpoint");
+            return;
+        }
+        Path path = Path.of(checkpointPath.get());
+        long start = System.nanoTime();
+        Map<String, VestEventHistory> vestEventHistoryMap = snapshot.histories();
+
+        int segmentCount = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(),
+                vestEventHistoryMap.size()));
+        List<List<VestEventHistory>> partitions = new ArrayList<>(segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            partitions.add(new ArrayList<>());
+        }
+        int next = 0;
+        for (VestEventHistory vestEventHistory : vestEventHistoryMap.values()) {
+            partitions.get(next++ % segmentCount).add(vestEventHistory);
+        }
+
+        byte[][] segments = IntStream.range(0, segmentCount).parallel()
+                .mapToObj(i -> encodeSegment(partitions.get(i), snapshot.payloads()))
+                .toArray(byte[][]::new);
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + segmentCount * TABLE_ENTRY_SIZE);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(segmentCount);
+        long offset = header.capacity();
+        for (byte[] segment : segments) {
+            header.putLong(offset).putInt(segment.length);
+            offset += segment.length;
+        }
+        header.flip();
+
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(channel, header);
+            for (byte[] segment : segments) {
+                writeFully(channel, ByteBuffer.wrap(segment));
+            }
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        logger.info("Wrote checkpoint of {} objects ({} bytes, {} segments) to {} in {} ms",
+                vestEventHistoryMap.size(), offset, segmentCount, path,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Load the checkpoint if there is one, restoring the payloads into the {@link PayloadStore}.
+     * The checkpoint is deleted once loaded; the running instance owns the state from then on and
+     * writes a fresh checkpoint when it is shut down.
+     * @return the restored history, empty if there was no checkpoint
+     */
+    public Map<String, VestEventHistory> load() throws IOException {
+        if (checkpointPath.isEmpty() || !Files.exists(Path.of(checkpointPath.get()))) {
+            return Map.of();
+        }
+        Path path = Path.of(checkpointPath.get());
+        long start = System.nanoTime();
+
+        Map<String, VestEventHistory> restored = new ConcurrentHashMap<>();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC) {
+                throw new IOException("Not a checkpoint file: " + path);
+            }
+            int formatVersion = header.getInt();
+            if (formatVersion != FORMAT_VERSION) {
+                throw new IOException("Unsupported checkpoint format version " + formatVersion + " in " + path);
+            }
+            int segmentCount = header.getInt();
+            ByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE,
+                    (long) segmentCount * TABLE_ENTRY_SIZE);
+            long[] offsets = new long[segmentCount];
+            int[] lengths = new int[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                offsets[i] = table.getLong();
+                lengths[i] = table.getInt();
+            }
+
+            IntStream.range(0, segmentCount).parallel().forEach(i -> {
+                try {
+                    decodeSegment(channel.map(FileChannel.MapMode.READ_ONLY, offsets[i], lengths[i]), restored);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Files.delete(path);
+
+        logger.info("Loaded checkpoint of {} objects from {} in {} ms",
+                restored.size(), path, (System.nanoTime() - start) / 1_000_000);
+        return restored;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private byte[] encodeSegment(List<VestEventHistory> histories, Map<VestEvent, VestEventPayload> payloads) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(histories.size());
+            for (VestEventHistory vestEventHistory : histories) {
+                writeString(out, vestEventHistory.getObjectId());
+                out.writeByte(ordinal(vestEventHistory.getMessageGroup()));
+                out.writeLong(vestEventHistory.getLastProcessedVersion());
+                out.writeInt(vestEventHistory.getVestEventsMap().size());
+                for (VestEvent vestEvent : vestEventHistory.getVestEventsMap().values()) {
+                    out.writeLong(vestEvent.getVersion());
+                    out.writeByte(ordinal(vestEvent.getState()));
+                    out.writeByte(ordinal(vestEvent.getMessageGroup()));
+                    VestEventPayload payload = payloads.get(vestEvent);
+                    out.writeBoolean(payload != null);
+                    if (payload != null) {
+                        writeString(out, payload.getEventId());
+                        writeString(out, payload.getInputXml());
+                        writeString(out, payload.getTransformedXml());
+                        out.writeLong(payload.getCreated());
+                        out.writeLong(payload.getLastUpdated());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // only the in-memory stream is being written to
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private void decodeSegment(ByteBuffer in, Map<String, VestEventHistory> restored) {
+        int historyCount = in.getInt();
+        for (int h = 0; h < historyCount; h++) {
+            String objectId = readString(in);
+            MessageGroup messageGroup = messageGroup(in.get());
+            long lastProcessedVersion = in.getLong();
+            int eventCount = in.getInt();
+            var vestEventsMap = HashMap.<Long, VestEvent>newHashMap(eventCount);
+            for (int e = 0; e < eventCount; e++) {
+                VestEvent vestEvent = new VestEvent();
+                vestEvent.setObjectId(objectId);
+                vestEvent.setVersion(in.getLong());
+                byte state = in.get();
+                vestEvent.setState(state < 0 ? null : STATES[state]);
+                vestEvent.setMessageGroup(messageGroup(in.get()));
+                if (in.get() != 0) {
+                    VestEventPayload payload = new VestEventPayload();
+                    payload.setEventId(readString(in));
+                    payload.setInputXml(readString(in));
+                    payload.setTransformedXml(readString(in));
+                    payload.setCreated(in.getLong());
+                    payload.setLastUpdated(in.getLong());
+                    payloadStore.putIfAbsent(vestEvent, payload);
+                }
+                vestEventsMap.put(vestEvent.getVersion(), vestEvent);
+            }
+            restored.put(objectId, VestEventHistory.builder()
+                    .objectId(objectId)
+                    .messageGroup(messageGroup)
+                    .lastProcessedVersion(lastProcessedVersion)
+                    .vestEventsMap(vestEventsMap)
+                    .build());
+        }
+    }
+
+    private static int ordinal(Enum<?> value) {
+        return value == null ? -1 : value.ordinal();
+    }
+
+    private static MessageGroup messageGroup(byte ordinal) {
+        return ordinal < 0 ? null : MESSAGE_GROUPS[ordinal];
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -38,6 +38,8 @@ public class Main implements QuarkusApplication {
         logger.info("Publisher initialized {}", publisher != null ? "successfully" : "failed");
         // trigger the processor to start processing
 //        processor.triggerSomething();
+
+        // the Processor drains the pipeline and writes the checkpoint when the application shuts down
         Quarkus.waitForExit();
         return 0;
     }
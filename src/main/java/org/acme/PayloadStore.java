@@ -0,0 +1,48 @@
+package org.acme;
+
+import jakarta.inject.Singleton;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the payload for every event version that is still in the pipeline, keyed by objectId and
+ * version. The header is what travels over the event bus; the payload is looked up here only by
+ * the stages that actually need the XML.
+ */
+@Singleton
+public class PayloadStore {
+
+    private record PayloadKey(String objectId, long version) {
+    }
+
+    final Map<PayloadKey, VestEventPayload> payloads = new ConcurrentHashMap<>();
+
+    /**
+     * Stores the payload unless one is already held for this version, so a duplicate submission
+     * cannot overwrite the payload of the version the {@link Processor} is already sequencing.
+     * @return false if a payload was already held for this version
+     */
+    public boolean putIfAbsent(VestEvent event, VestEventPayload payload) {
+        return payloads.putIfAbsent(new PayloadKey(event.getObjectId(), event.getVersion()), payload) == null;
+    }
+
+    public VestEventPayload get(VestEvent event) {
+        return payloads.get(new PayloadKey(event.getObjectId(), event.getVersion()));
+    }
+
+    /**
+     * @return the payload that was held for this version, if any
+     */
+    public VestEventPayload remove(VestEvent event) {
+        return payloads.remove(new PayloadKey(event.getObjectId(), event.getVersion()));
+    }
+
+    public int size() {
+        return payloads.size();
+    }
+
+    public void clear() {
+        payloads.clear();
+    }
+}
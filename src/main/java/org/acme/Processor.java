@@ -1,16 +1,48 @@
 package org.acme;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.opentelemetry.api.common.Attributes;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
+import io.quarkus.runtime.ShutdownEvent;
 import io.quarkus.runtime.StartupEvent;
 import io.quarkus.vertx.ConsumeEvent;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
 import io.vertx.mutiny.core.eventbus.EventBus;
+import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.event.Observes;
 import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import static org.acme.Channels.INCOMING_EVENTS;
 import static org.acme.Channels.PUBLISH_EVENTS;
@@ -26,27 +58,218 @@ public class Processor {
     @Inject
     EventBus eventBus;
 
+    @Inject
+    PayloadStore payloadStore;
+
+    @Inject
+    EventTracing eventTracing;
+
+    @Inject
+    SequencingIndex sequencingIndex;
+
+    @Inject
+    MeterRegistry meterRegistry;
+
+    @Inject
+    VestEventPool vestEventPool;
+
+    @Inject
+    HistoryCheckpoint historyCheckpoint;
+
+    @ConfigProperty(name = "vest.limiter.initial-limit", defaultValue = "8")
+    int initialLimit;
+
+    @ConfigProperty(name = "vest.limiter.min-limit", defaultValue = "1")
+    int minLimit;
+
+    @ConfigProperty(name = "vest.limiter.max-limit", defaultValue = "64")
+    int maxLimit;
+
+    @ConfigProperty(name = "vest.shutdown.drain-timeout", defaultValue = "30s")
+    Duration drainTimeout;
+
     final Map<String, VestEventHistory> vestEventHistoryMap = new ConcurrentHashMap<>();
 
+    // work that still holds an event: requests to the transformer/publisher (queued or sent) that
+    // have not had a response yet and events on their way to the processor over the event bus
+    final AtomicInteger inFlight = new AtomicInteger();
+
+    // the event loop the processor handles its events on; everything that changes the history runs there
+    private volatile io.vertx.core.Context eventLoop;
+
+    /**
+     * One request to the transformer or publisher. Dispatches are recycled and are their own reply
+     * handler, so sending a request doesn't allocate a callback or delivery options each time. The
+     * rest of the hot path still allocates: Vert.x creates a message and future per request, the
+     * hops back to the processor each get new delivery options with a trace header map, and the
+     * log calls box the versions.
+     */
+    private final class Dispatch implements Handler<AsyncResult<Message<Object>>> {
+        private final DeliveryOptions deliveryOptions = new DeliveryOptions();
+        private VestEvent event;
+        private Context   context;
+        private boolean   publish;
+        private long      sentAt;
+
+        @Override
+        public void handle(AsyncResult<Message<Object>> reply) {
+            VestEvent vestEvent = event;
+            if (publish) {
+                publishReplied(this, reply);
+            } else {
+                transformReplied(this, reply);
+            }
+            // only now, any onward hop has taken its own hold on the event
+            release(vestEvent);
+        }
+    }
+
+    private static final int MAX_POOLED_DISPATCHES = 1024;
+    // how long the event loop gets to copy the history on shutdown
+    private static final long SNAPSHOT_TIMEOUT_SECONDS = 5;
+    private final Deque<Dispatch> dispatchPool = new ArrayDeque<>();
+    // Dispatches allocated because the pool was empty, stays flat once the pipeline has warmed up
+    final AtomicInteger dispatchesCreated = new AtomicInteger();
+
+    // concurrency towards the transformer and publisher adapts to the latency they respond with,
+    // anything over the limit waits here for a slot
+    AdaptiveLimiter transformLimiter;
+    AdaptiveLimiter publishLimiter;
+    private final Deque<Dispatch> pendingTransforms = new ArrayDeque<>();
+    private final Deque<Dispatch> pendingPublishes = new ArrayDeque<>();
+    // bound once rather than on every dispatch
+    private final Consumer<Dispatch> requestSender = this::sendRequest;
+
+    // closed until the checkpoint has been restored, and again when shutting down
+    private volatile boolean admitting = false;
+
+    // trace context of versions waiting on a predecessor, so their trace carries on once released
+    final Map<VestEvent, Context> parkedTraceContexts = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void init() {
+        transformLimiter = new AdaptiveLimiter("transform", initialLimit, minLimit, maxLimit);
+        publishLimiter = new AdaptiveLimiter("publish", initialLimit, minLimit, maxLimit);
+        registerGauges(transformLimiter, pendingTransforms);
+        registerGauges(publishLimiter, pendingPublishes);
+    }
+
+    private void registerGauges(AdaptiveLimiter limiter, Deque<Dispatch> pending) {
+        Gauge.builder("vest.limiter.limit", limiter, AdaptiveLimiter::getLimit)
+                .tag("stage", limiter.getName())
+                .description("Current concurrency limit")
+                .register(meterRegistry);
+        Gauge.builder("vest.limiter.in-flight", limiter, AdaptiveLimiter::getInFlight)
+                .tag("stage", limiter.getName())
+                .description("Requests currently sent to the stage")
+                .register(meterRegistry);
+        Gauge.builder("vest.limiter.pending", pending, Processor::pendingCount)
+                .tag("stage", limiter.getName())
+                .description("Requests waiting for the stage to have capacity")
+                .register(meterRegistry);
+    }
+
+    private static int pendingCount(Deque<Dispatch> pending) {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Create a new event version from the pools and hand it to the processor. This is the one place
+     * new events are made, so who owns the pooled header and payload is decided here: the payload
+     * store keeps the payload unless it already holds one for this version, and whatever is refused
+     * goes straight back to the pool.
+     * @return false if the event was refused because the application is shutting down
+     */
+    public boolean submit(String objectId, long version, String inputXml) {
+        VestEvent vestEvent = vestEventPool.acquire();
+        vestEvent.setObjectId(objectId);
+        vestEvent.setVersion(version);
+        vestEvent.setState(ProcessingState.FRESH);
+
+        // the payload stays in the store, only the header goes over the bus
+        VestEventPayload payload = vestEventPool.acquirePayload();
+        payload.setInputXml(inputXml);
+        payload.setCreated(System.currentTimeMillis());
+        boolean stored = payloadStore.putIfAbsent(vestEvent, payload);
+        if (!stored) {
+            // duplicate version, the payload held already belongs to the original and the header is dropped later
+            vestEventPool.releasePayload(payload);
+        }
+
+        if (!submit(vestEvent)) {
+            if (stored) {
+                vestEventPool.releasePayload(payloadStore.remove(vestEvent));
+            }
+            vestEventPool.release(vestEvent);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Hand a new event to the processor. Once admission has stopped the event is refused, so
+     * nothing that was accepted can still turn up after the drain on shutdown has finished.
+     * @return false if the event was refused
+     */
+    boolean submit(VestEvent vestEvent) {
+        // counted before admission is checked: either the drain sees this event or it is refused
+        inFlight.incrementAndGet();
+        if (!admitting) {
+            inFlight.decrementAndGet();
+            return false;
+        }
+        vestEvent.references++;
+        // start the trace for this version off from the caller's
+        eventBus.send(INCOMING_EVENTS, vestEvent, eventTracing.deliveryOptions(Context.current()));
+        return true;
+    }
+
     @ConsumeEvent(INCOMING_EVENTS)
-    protected void handleIncomingEvent(VestEvent event) {
+    protected void handleIncomingEvent(MultiMap headers, VestEvent event) {
         logger.info("Received event at Processor: {} version: {} state: {}",
                 event.getObjectId(), event.getVersion(), event.getState());
-        try {
+        if (eventLoop == null) {
+            eventLoop = Vertx.currentContext();
+        }
+        // hops sent through submit or by the processor itself are counted, events put on the bus directly are not
+        boolean counted = event.references > 0;
+        Span span = eventTracing.startSpan("vest.process", eventTracing.extract(headers), event);
+        try (Scope ignored = span.makeCurrent()) {
+            if (event.retired) {
+                logger.info("Event {} version {} has already left the pipeline, ignoring it",
+                        event.getObjectId(), event.getVersion());
+                return;
+            }
             switch (event.getState()) {
                 case FRESH -> initProcessEvent(event);
+                // re-sent after restoring a checkpoint
+                case RECEIVED -> sendToTransformer(event);
                 case TRANSFORMED -> sendToProducer(event);
                 case PUBLISHED -> postPublish(event);
                 case ACK_RECEIVED -> logger.info("Ack received for {} version {} state: {}",
                         event.getObjectId(), event.getVersion(), event.getState());
-                case APP_PROCESSED -> event.setState(ProcessingState.APP_PROCESSED);
+                case APP_PROCESSED -> {
+                    event.setState(ProcessingState.APP_PROCESSED);
+                    sequencingIndex.track(event);
+                }
                 default -> {
                     logger.warn("Received event with unexpected state: {}", event.getState());
                     return; // Ignore events that are not in the expected state
                 }
             }
         } catch (Exception e) {
+            span.recordException(e);
+            span.setStatus(StatusCode.ERROR);
             logger.error("Error processing incoming message", e);
+        } finally {
+            span.end();
+            if (counted) {
+                release(event);
+            } else if (event.retired && event.references == 0) {
+                recycle(event);
+            }
         }
     }
 
@@ -75,10 +298,21 @@ public class Processor {
         } else {
             logger.info("Found existing history for objectId {}. Re-using it.", key);
             vestEventHistory = vestEventHistoryMap.get(key);
-            if (vestEventHistory.getVestEventsMap().containsKey(vestEvent.getVersion())) {
+            var existing = vestEventHistory.getVestEventsMap().get(vestEvent.getVersion());
+            if (existing != null) {
                 logger.warn("Event with version {} already exists for objectId {}. Ignoring this event.",
                         vestEvent.getVersion(), key);
+                if (existing != vestEvent) {
+                    // goes back to the pool once the hop that brought it here lets go of it
+                    vestEvent.retired = true;
+                }
                 return; // Ignore duplicate events
+            } else if (vestEvent.getVersion() <= vestEventHistory.getLastProcessedVersion()) {
+                // a late copy of a version that has already been published and released
+                logger.warn("Event with version {} for objectId {} has already been published. Ignoring this event.",
+                        vestEvent.getVersion(), key);
+                vestEvent.retired = true;
+                return;
             } else {
                 // Add the new event to the existing history
                 vestEventHistory.getVestEventsMap().put(vestEvent.getVersion(), vestEvent);
@@ -86,50 +320,116 @@ public class Processor {
 
 
         }
-        // Forward to transformer
-        eventBus.request(TRANSFORM_EVENTS, vestEvent)
-                .subscribe().with(response -> {
-                            // handle the response
-                            VestEvent event1 = (VestEvent) response.body();
-                            logger.info("Message received from transform process - send back to processor: {} version: {}",
-                                    event1.getObjectId(), event1.getVersion());
-                            // put the event back on the bus for further processing
-                            eventBus.send(INCOMING_EVENTS, event1);
-                        },
-                        failure -> {
-                            // handle the failure
-                            logger.error("Failed to process event in transformer: {}",
-                                    vestEvent.getObjectId(), failure);
-                        });
+        sequencingIndex.track(vestEvent);
+        sequencingIndex.refreshGap(vestEventHistory);
+        if (admitting) {
+            // Forward to transformer
+            sendToTransformer(vestEvent);
+        } else {
+            // accepted before admission stopped, keep it as RECEIVED so it is checkpointed and sent on after a restart
+            logger.warn("Shutting down - holding event {} version {} for the checkpoint",
+                    vestEvent.getObjectId(), vestEvent.getVersion());
+        }
         // Store the event
-        logger.info("map now contains: {}", vestEventHistoryMap.toString());
+        logger.debug("map now contains: {}", vestEventHistoryMap);
         logger.info("Event processed by processor: {} version: {}", vestEvent.getObjectId(), vestEvent.getVersion());
     }
 
+    protected void sendToTransformer(VestEvent vestEvent) {
+        retain(vestEvent);
+        enqueue(pendingTransforms, vestEvent, false);
+        transformLimiter.dispatch(pendingTransforms, requestSender);
+    }
+
+    private void transformReplied(Dispatch dispatch, AsyncResult<Message<Object>> reply) {
+        Context context = dispatch.context;
+        if (reply.succeeded()) {
+            transformLimiter.onSuccess(System.nanoTime() - dispatch.sentAt);
+            // handle the response
+            VestEvent event1 = (VestEvent) reply.result().body();
+            logger.info("Message received from transform process - send back to processor: {} version: {}",
+                    event1.getObjectId(), event1.getVersion());
+            if (!event1.retired) {
+                // put the event back on the bus for further processing
+                sendIncoming(event1, context);
+            }
+        } else {
+            failed(transformLimiter, dispatch, reply.cause());
+            // handle the failure
+            logger.error("Failed to process event in transformer: {}",
+                    dispatch.event.getObjectId(), reply.cause());
+        }
+        recycle(dispatch);
+        transformLimiter.dispatch(pendingTransforms, requestSender);
+    }
+
+    /**
+     * Only a stage that timed out or isn't there is a sign of overload. A request the stage
+     * answered with a failure, say a missing payload or invalid XML, still took a normal round
+     * trip, so it counts as a latency sample like any other.
+     */
+    private static void failed(AdaptiveLimiter limiter, Dispatch dispatch, Throwable cause) {
+        if (overloaded(cause)) {
+            limiter.onDropped();
+        } else {
+            limiter.onSuccess(System.nanoTime() - dispatch.sentAt);
+        }
+    }
+
+    static boolean overloaded(Throwable cause) {
+        return cause instanceof ReplyException replyException
+                && (replyException.failureType() == ReplyFailure.TIMEOUT
+                || replyException.failureType() == ReplyFailure.NO_HANDLERS);
+    }
+
+    private void enqueue(Deque<Dispatch> pending, VestEvent event, boolean publish) {
+        Dispatch dispatch;
+        synchronized (dispatchPool) {
+            dispatch = dispatchPool.pollFirst();
+        }
+        if (dispatch == null) {
+            dispatch = new Dispatch();
+            dispatchesCreated.incrementAndGet();
+        }
+        dispatch.event = event;
+        dispatch.context = Context.current();
+        dispatch.publish = publish;
+        synchronized (pending) {
+            pending.addLast(dispatch);
+        }
+    }
+
+    private void recycle(Dispatch dispatch) {
+        dispatch.event = null;
+        dispatch.context = null;
+        synchronized (dispatchPool) {
+            if (dispatchPool.size() < MAX_POOLED_DISPATCHES) {
+                dispatchPool.addFirst(dispatch);
+            }
+        }
+    }
+
+    private void sendRequest(Dispatch dispatch) {
+        dispatch.sentAt = System.nanoTime();
+        eventBus.getDelegate()
+                .<Object>request(dispatch.publish ? PUBLISH_EVENTS : TRANSFORM_EVENTS, dispatch.event,
+                        eventTracing.deliveryOptions(dispatch.context, dispatch.deliveryOptions))
+                .onComplete(dispatch);
+    }
+
     protected void sendToProducer(VestEvent event) {
 
         //        // Check if we can process this version
 
         var lastProcessedVersion = vestEventHistoryMap.get(event.getObjectId()).getLastProcessedVersion();
+        sequencingIndex.track(event);
 
         // if this version is the next one in sequence, we can process it
         if (event.getVersion() == lastProcessedVersion + 1) {
-            eventBus.request(PUBLISH_EVENTS, event)
-                    .subscribe().with(response -> {
-                                // handle the response
-                                VestEvent event1 = (VestEvent) response.body();
-                                logger.info("Message received from producer process - send back to processor: {} version: {}",
-                                        event1.getObjectId(), event1.getVersion());
-                                // get the source vest event from the history map
-                                var vestEvent = vestEventHistoryMap.get(event.getObjectId()).getVestEventsMap().
-                                        get(event1.getVersion());
-                                vestEvent.setState(PUBLISHED);
-                                eventBus.send(INCOMING_EVENTS, vestEvent);
-                            },
-                            failure -> {
-                                // handle the failure
-                                logger.error("Failed to process event in producer: {}", event.getObjectId(), failure);
-                            });
+            sequencingIndex.unpark(event);
+            retain(event);
+            enqueue(pendingPublishes, event, true);
+            publishLimiter.dispatch(pendingPublishes, requestSender);
 
 //            if (previousEvent == null || previousEvent.getState() != ProcessingState.APP_PROCESSED) {
 //                logger.info("Cannot publish object {} version {} as previous version is not processed",
@@ -139,10 +439,38 @@ public class Processor {
         } else {
             logger.warn("Cannot send event for object {} version {}. Last processed version is {}",
                     event.getObjectId(), event.getVersion(), lastProcessedVersion);
+            Span.current().addEvent("waiting for predecessor",
+                    Attributes.of(EventTracing.LAST_PROCESSED_VERSION, lastProcessedVersion));
+            parkedTraceContexts.put(event, Context.current());
+            sequencingIndex.park(event, lastProcessedVersion);
         }
 
     }
 
+    private void publishReplied(Dispatch dispatch, AsyncResult<Message<Object>> reply) {
+        VestEvent event = dispatch.event;
+        if (reply.succeeded()) {
+            publishLimiter.onSuccess(System.nanoTime() - dispatch.sentAt);
+            // handle the response
+            VestEvent event1 = (VestEvent) reply.result().body();
+            logger.info("Message received from producer process - send back to processor: {} version: {}",
+                    event1.getObjectId(), event1.getVersion());
+            // get the source vest event from the history map
+            var vestEventHistory = vestEventHistoryMap.get(event.getObjectId());
+            var vestEvent = vestEventHistory == null ? null : vestEventHistory.getVestEventsMap().get(event1.getVersion());
+            if (vestEvent != null && !vestEvent.retired) {
+                vestEvent.setState(PUBLISHED);
+                sendIncoming(vestEvent, dispatch.context);
+            }
+        } else {
+            failed(publishLimiter, dispatch, reply.cause());
+            // handle the failure
+            logger.error("Failed to process event in producer: {}", event.getObjectId(), reply.cause());
+        }
+        recycle(dispatch);
+        publishLimiter.dispatch(pendingPublishes, requestSender);
+    }
+
     void postPublish(VestEvent event) {
         logger.info("Post-publish processing for event: {} version: {}", event.getObjectId(), event.getVersion());
         // if we have previously processed versions for this objectId in the event history map then
@@ -150,19 +478,27 @@ public class Processor {
         String key = event.getObjectId();
         VestEventHistory vestEventHistory = vestEventHistoryMap.get(key);
         if (vestEventHistory != null) {
+            sequencingIndex.track(event);
             // Update the last processed version
             vestEventHistory.setLastProcessedVersion(event.getVersion());
             // Remove all previous versions from the history map where they have been published
             // Get list of all previous versions
-            vestEventHistory.getVestEventsMap().entrySet().removeIf(version -> {
-                if (version.getValue().getVersion() < event.getVersion() && event.getState() == PUBLISHED) {
-                    logger.info("Removing version {} for objectId {} from history", version, key);
+            Iterator<VestEvent> versions = vestEventHistory.getVestEventsMap().values().iterator();
+            while (versions.hasNext()) {
+                VestEvent version = versions.next();
+                if (version.getVersion() < event.getVersion() && event.getState() == PUBLISHED && !version.retired) {
+                    logger.info("Removing version {} for objectId {} from history", version.getVersion(), key);
+                    retire(version);
+                    if (version.references == 0) {
+                        versions.remove();
+                        recycle(version);
+                    }
                 }
-                return version.getValue().getVersion() < event.getVersion() && event.getState() == PUBLISHED;
-            });
+            }
+            sequencingIndex.refreshGap(vestEventHistory);
             logger.info("Updated history for objectId {}. Last processed version is now {}",
                     key, vestEventHistory.getLastProcessedVersion());
-            logger.info("map now contains: {}", vestEventHistoryMap.toString());
+            logger.debug("map now contains: {}", vestEventHistoryMap);
         } else {
             logger.warn("No history found for objectId {}. Cannot update last processed version.", key);
             return;
@@ -170,21 +506,226 @@ public class Processor {
 
         // We should be able to take the next available event from the history map and if it's transformed
         // then we can publish it
-        vestEventHistory.getVestEventsMap().entrySet().stream()
-                .sorted(Map.Entry.comparingByKey())
-                .filter(entry ->
-                        entry.getKey() == vestEventHistory.getLastProcessedVersion() + 1
-                                && entry.getValue().getState() == ProcessingState.TRANSFORMED)
-                .findFirst().ifPresent(nextEvent -> {
-                    logger.info("Sending next event objectid: {} version: {} to producer for publishing",
-                            nextEvent.getValue().getObjectId(), nextEvent.getValue().getVersion());
-                    // Send the next event to the producer so it can trigger publishing
-                    eventBus.send(INCOMING_EVENTS, nextEvent.getValue());
-                });
-    }
-
-    void onStart(@Observes StartupEvent event) {
+        VestEvent nextEvent = vestEventHistory.getVestEventsMap().get(vestEventHistory.getLastProcessedVersion() + 1);
+        if (nextEvent != null && nextEvent.getState() == ProcessingState.TRANSFORMED) {
+            logger.info("Sending next event objectid: {} version: {} to producer for publishing",
+                    nextEvent.getObjectId(), nextEvent.getVersion());
+            Span.current().addEvent("released next version",
+                    Attributes.of(EventTracing.VERSION, nextEvent.getVersion()));
+            // carry on in the trace of the version that was waiting, if we have it
+            Context context = parkedTraceContexts.remove(nextEvent);
+            // Send the next event to the producer so it can trigger publishing
+            sendIncoming(nextEvent, context != null ? context : Context.current());
+        }
+    }
+
+    /**
+     * Put the event back on the bus to the processor, holding on to it until it has been handled.
+     */
+    private void sendIncoming(VestEvent vestEvent, Context context) {
+        retain(vestEvent);
+        eventBus.send(INCOMING_EVENTS, vestEvent, eventTracing.deliveryOptions(context));
+    }
+
+    private void retain(VestEvent vestEvent) {
+        vestEvent.references++;
+        inFlight.incrementAndGet();
+    }
+
+    private void release(VestEvent vestEvent) {
+        vestEvent.references--;
+        if (vestEvent.references == 0 && vestEvent.retired) {
+            recycle(vestEvent);
+        }
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * The version has left the pipeline, drop it from the indexes. It stays in the history until
+     * the dispatches and hops still holding it are done with it.
+     */
+    private void retire(VestEvent vestEvent) {
+        vestEvent.retired = true;
+        sequencingIndex.untrack(vestEvent);
+        parkedTraceContexts.remove(vestEvent);
+    }
+
+    /**
+     * Nothing references the event any more, hand it back to the pool. The payload goes with it
+     * unless it belongs to another instance of the same version, as it does for a duplicate.
+     */
+    private void recycle(VestEvent vestEvent) {
+        var vestEventHistory = vestEventHistoryMap.get(vestEvent.getObjectId());
+        VestEvent held = vestEventHistory == null ? null
+                : vestEventHistory.getVestEventsMap().get(vestEvent.getVersion());
+        if (held == vestEvent) {
+            vestEventHistory.getVestEventsMap().remove(vestEvent.getVersion());
+        }
+        if (held == null || held == vestEvent) {
+            VestEventPayload payload = payloadStore.remove(vestEvent);
+            if (payload != null) {
+                vestEventPool.releasePayload(payload);
+            }
+        }
+        vestEventPool.release(vestEvent);
+    }
+
+    /**
+     * Stop accepting new (FRESH) events. Events already in the history carry on through the pipeline.
+     */
+    void stopAdmission() {
+        admitting = false;
+    }
+
+    void openAdmission() {
+        admitting = true;
+    }
+
+    boolean isAdmitting() {
+        return admitting;
+    }
+
+    /**
+     * Wait for the outstanding transformer/publisher requests, and the hops back to the processor
+     * that follow them, to complete.
+     * @param timeout how long to wait before giving up
+     * @return true if nothing is left in flight
+     */
+    boolean awaitDrained(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (inFlight.get() > 0) {
+            if (System.nanoTime() - deadline >= 0) {
+                logger.warn("Drain timed out with {} requests still in flight", inFlight.get());
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    /**
+     * Copy of the history for the checkpoint. It is taken on the processor's event loop so it is
+     * consistent even when the drain timed out and events are still moving. The payloads that are
+     * still needed are copied too, as the versions they belong to may be recycled before the
+     * checkpoint has been written.
+     */
+    HistoryCheckpoint.Snapshot snapshot() throws InterruptedException {
+        io.vertx.core.Context context = eventLoop;
+        if (context == null) {
+            // no event has been handled, so there is nothing running that could change the history
+            return copyHistory();
+        }
+        CompletableFuture<HistoryCheckpoint.Snapshot> snapshot = new CompletableFuture<>();
+        context.runOnContext(ignored -> {
+            try {
+                snapshot.complete(copyHistory());
+            } catch (RuntimeException e) {
+                snapshot.completeExceptionally(e);
+            }
+        });
+        try {
+            return snapshot.get(SNAPSHOT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            // the event loop isn't running any more, so nothing is left that could change the history
+            logger.warn("Event loop did not take the snapshot within {}s, copying the history directly",
+                    SNAPSHOT_TIMEOUT_SECONDS);
+            return copyHistory();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not take a snapshot of the history", e.getCause());
+        }
+    }
+
+    private HistoryCheckpoint.Snapshot copyHistory() {
+        Map<String, VestEventHistory> copy = HashMap.newHashMap(vestEventHistoryMap.size());
+        Map<VestEvent, VestEventPayload> payloads = new IdentityHashMap<>();
+        for (VestEventHistory vestEventHistory : vestEventHistoryMap.values()) {
+            var vestEventsMap = HashMap.<Long, VestEvent>newHashMap(vestEventHistory.getVestEventsMap().size());
+            for (VestEvent vestEvent : vestEventHistory.getVestEventsMap().values()) {
+                if (vestEvent.retired) {
+                    continue;
+                }
+                VestEvent eventCopy = new VestEvent();
+                eventCopy.setObjectId(vestEvent.getObjectId());
+                eventCopy.setVersion(vestEvent.getVersion());
+                eventCopy.setState(vestEvent.getState());
+                eventCopy.setMessageGroup(vestEvent.getMessageGroup());
+                vestEventsMap.put(eventCopy.getVersion(), eventCopy);
+                // published and processed versions are only kept for sequencing, their payload is never used again
+                if (vestEvent.getVersion() > vestEventHistory.getLastProcessedVersion()) {
+                    VestEventPayload payload = payloadStore.get(vestEvent);
+                    if (payload != null) {
+                        payloads.put(eventCopy, payload.copy());
+                    }
+                }
+            }
+            copy.put(vestEventHistory.getObjectId(), VestEventHistory.builder()
+                    .objectId(vestEventHistory.getObjectId())
+                    .messageGroup(vestEventHistory.getMessageGroup())
+                    .lastProcessedVersion(vestEventHistory.getLastProcessedVersion())
+                    .vestEventsMap(vestEventsMap)
+                    .build());
+        }
+        return new HistoryCheckpoint.Snapshot(copy, payloads);
+    }
+
+    /**
+     * Take over history restored from a checkpoint and pick up each object where it left off:
+     * versions that never came back from the transformer are re-sent to it, and the next version
+     * in sequence is pushed on towards the publisher. The history is complete before anything is
+     * sent on; from then on it is only changed on the processor's event loop.
+     */
+    void restore(Map<String, VestEventHistory> restored) {
+        List<VestEvent> resume = new ArrayList<>();
+        for (VestEventHistory vestEventHistory : restored.values()) {
+            if (vestEventHistoryMap.putIfAbsent(vestEventHistory.getObjectId(), vestEventHistory) != null) {
+                logger.warn("History for objectId {} already exists, not restoring it from the checkpoint",
+                        vestEventHistory.getObjectId());
+                continue;
+            }
+            long lastProcessedVersion = vestEventHistory.getLastProcessedVersion();
+            sequencingIndex.refreshGap(vestEventHistory);
+            for (VestEvent vestEvent : vestEventHistory.getVestEventsMap().values()) {
+                sequencingIndex.track(vestEvent);
+                if (vestEvent.getState() == RECEIVED) {
+                    resume.add(vestEvent);
+                } else if (vestEvent.getState() == PUBLISHED && vestEvent.getVersion() > lastProcessedVersion) {
+                    // published but post-publish never ran
+                    resume.add(vestEvent);
+                } else if (vestEvent.getState() == ProcessingState.TRANSFORMED) {
+                    if (vestEvent.getVersion() == lastProcessedVersion + 1) {
+                        resume.add(vestEvent);
+                    } else {
+                        sequencingIndex.park(vestEvent, lastProcessedVersion);
+                    }
+                }
+            }
+        }
+        for (VestEvent vestEvent : resume) {
+            sendIncoming(vestEvent, Context.root());
+        }
+        logger.info("Restored history for {} objects", restored.size());
+    }
+
+    /**
+     * Restore the checkpoint before admission opens, so nothing new can arrive in the meantime.
+     */
+    void onStart(@Observes StartupEvent event) throws IOException {
         logger.info("Application starting up, initializing Processor...");
+        // pick up where the last instance left off
+        restore(historyCheckpoint.load());
+        openAdmission();
+    }
+
+    /**
+     * Stop taking new events, let the ones in the pipeline finish and then save the history. The
+     * shutdown event is fired before Vert.x is closed, whether the application was asked to exit
+     * or was sent SIGTERM, so the replies being waited for can still arrive.
+     */
+    void onStop(@Observes ShutdownEvent event) throws IOException, InterruptedException {
+        logger.info("Shutdown requested, draining in-flight events...");
+        stopAdmission();
+        awaitDrained(drainTimeout);
+        historyCheckpoint.write(snapshot());
     }
 
 //    public void triggerSomething() {
@@ -1,11 +1,16 @@
 package org.acme;
 
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.context.Scope;
 import io.quarkus.runtime.StartupEvent;
 import io.quarkus.vertx.ConsumeEvent;
 import io.smallrye.common.annotation.Blocking;
 import io.smallrye.mutiny.Uni;
+import io.vertx.core.MultiMap;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
 import lombok.val;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,9 +26,24 @@ public class Publisher {
 
     private final static Logger logger = LoggerFactory.getLogger(Publisher.class);
 
+    @Inject
+    PayloadStore payloadStore;
+
+    @Inject
+    EventTracing eventTracing;
+
     @Blocking
     @ConsumeEvent(PUBLISH_EVENTS)
-    public Uni<VestEvent> send(final VestEvent vestEvent) throws InterruptedException {
+    public Uni<VestEvent> send(final MultiMap headers, final VestEvent vestEvent) throws InterruptedException {
+        val span = eventTracing.startSpan("vest.publish", eventTracing.extract(headers), vestEvent);
+        try (Scope ignored = span.makeCurrent()) {
+            return publish(vestEvent);
+        } finally {
+            span.end();
+        }
+    }
+
+    private Uni<VestEvent> publish(final VestEvent vestEvent) throws InterruptedException {
 
         // Send the transformed XML to the appropriate queue
         val targetQueue = switch (vestEvent.getMessageGroup()) {
@@ -31,8 +51,16 @@ public class Publisher {
             case GOPS_EOD_CONTROL_SUB-> "gopsEodControlSubQueue";
             default -> "defaultQueue";
         };
-        val transformedXml = vestEvent.getTransformedXml();
-        vestEvent.setTransformedXml(vestEvent.getTransformedXml());
+        val payload = payloadStore.get(vestEvent);
+        if (payload == null) {
+            logger.error("No payload held for event: {} version: {}, not publishing",
+                    vestEvent.getObjectId(), vestEvent.getVersion());
+            Span.current().setStatus(StatusCode.ERROR, "payload missing");
+            return Uni.createFrom().failure(new IllegalStateException("No payload held for event: "
+                    + vestEvent.getObjectId() + " version: " + vestEvent.getVersion()));
+        }
+        val transformedXml = payload.getTransformedXml();
+        payload.setLastUpdated(System.currentTimeMillis());
         vestEvent.setState(PUBLISHED);
         logger.info("Pretending to send transformed XML to queue: {}", targetQueue);
         sleep(100);
@@ -0,0 +1,202 @@
+package org.acme;
+
+import io.quarkus.runtime.annotations.RegisterForReflection;
+import jakarta.inject.Singleton;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Secondary indexes over the {@link Processor} state so the admin queries only touch the entries
+ * they return rather than scanning the whole history map. The {@link Processor} keeps them up to
+ * date as it moves events along:
+ * <ul>
+ *     <li>by state - every version in the history, grouped by its processing state</li>
+ *     <li>by age - versions that are transformed but parked waiting for an earlier version, oldest first</li>
+ *     <li>by gap - objects whose next version hasn't arrived yet although later ones have, largest gap first</li>
+ * </ul>
+ */
+@Singleton
+public class SequencingIndex {
+
+    // the records are returned as JSON by the AdminResource, so keep them reflectively accessible in the native image
+    @RegisterForReflection
+    public record EventSummary(String objectId, long version, ProcessingState state) {
+    }
+
+    @RegisterForReflection
+    public record ParkedVersion(String objectId, long version, long lastProcessedVersion, long parkedAt) {
+    }
+
+    @RegisterForReflection
+    public record BlockedObject(String objectId, long lastProcessedVersion, long nextHeldVersion, long gap) {
+    }
+
+    private static final Comparator<ParkedVersion> OLDEST_FIRST = Comparator
+            .comparingLong(ParkedVersion::parkedAt)
+            .thenComparing(ParkedVersion::objectId)
+            .thenComparingLong(ParkedVersion::version);
+
+    // summary each event was last indexed under, so it can be found again when the state moves on.
+    // The summaries are immutable so the admin queries never read the pooled events themselves.
+    private final Map<VestEvent, EventSummary> indexedStates = new ConcurrentHashMap<>();
+    private final Map<ProcessingState, Set<EventSummary>> byState = new EnumMap<>(ProcessingState.class);
+
+    private final Map<VestEvent, ParkedVersion> parked = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<ParkedVersion> parkedByAge = new ConcurrentSkipListSet<>(OLDEST_FIRST);
+
+    private final Map<String, BlockedObject> blocked = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<Long, Set<String>> blockedByGap =
+            new ConcurrentSkipListMap<>(Comparator.reverseOrder());
+
+    public SequencingIndex() {
+        for (ProcessingState state : ProcessingState.values()) {
+            byState.put(state, ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    /**
+     * Index the event under its current state, moving it out of the state it was in before.
+     */
+    public void track(VestEvent event) {
+        ProcessingState state = event.getState();
+        EventSummary previous = indexedStates.get(event);
+        if (previous == null ? state == null : previous.state() == state) {
+            return;
+        }
+        if (previous != null) {
+            byState.get(previous.state()).remove(previous);
+        }
+        if (state == null) {
+            indexedStates.remove(event);
+            return;
+        }
+        EventSummary summary = new EventSummary(event.getObjectId(), event.getVersion(), state);
+        indexedStates.put(event, summary);
+        byState.get(state).add(summary);
+    }
+
+    /**
+     * The event has left the history, drop it from every index.
+     */
+    public void untrack(VestEvent event) {
+        EventSummary previous = indexedStates.remove(event);
+        if (previous != null) {
+            byState.get(previous.state()).remove(previous);
+        }
+        unpark(event);
+    }
+
+    public void park(VestEvent event, long lastProcessedVersion) {
+        ParkedVersion parkedVersion = new ParkedVersion(event.getObjectId(), event.getVersion(),
+                lastProcessedVersion, System.currentTimeMillis());
+        ParkedVersion previous = parked.putIfAbsent(event, parkedVersion);
+        if (previous == null) {
+            parkedByAge.add(parkedVersion);
+        }
+    }
+
+    public void unpark(VestEvent event) {
+        ParkedVersion parkedVersion = parked.remove(event);
+        if (parkedVersion != null) {
+            parkedByAge.remove(parkedVersion);
+        }
+    }
+
+    /**
+     * Work out whether the object is waiting for a version that hasn't arrived yet. Only looks at
+     * the versions held for this one object.
+     */
+    public void refreshGap(VestEventHistory vestEventHistory) {
+        String objectId = vestEventHistory.getObjectId();
+        long lastProcessedVersion = vestEventHistory.getLastProcessedVersion();
+        long nextHeldVersion = Long.MAX_VALUE;
+        for (Long version : vestEventHistory.getVestEventsMap().keySet()) {
+            if (version > lastProcessedVersion && version < nextHeldVersion) {
+                nextHeldVersion = version;
+            }
+        }
+
+        BlockedObject previous = blocked.remove(objectId);
+        if (previous != null) {
+            blockedByGap.computeIfPresent(previous.gap(), (gap, objectIds) -> {
+                objectIds.remove(objectId);
+                return objectIds.isEmpty() ? null : objectIds;
+            });
+        }
+        if (nextHeldVersion == Long.MAX_VALUE || nextHeldVersion == lastProcessedVersion + 1) {
+            return;
+        }
+        BlockedObject blockedObject = new BlockedObject(objectId, lastProcessedVersion, nextHeldVersion,
+                nextHeldVersion - lastProcessedVersion - 1);
+        blocked.put(objectId, blockedObject);
+        blockedByGap.compute(blockedObject.gap(), (gap, objectIds) -> {
+            Set<String> ids = objectIds == null ? ConcurrentHashMap.newKeySet() : objectIds;
+            ids.add(objectId);
+            return ids;
+        });
+    }
+
+    public Map<ProcessingState, Integer> stateCounts() {
+        Map<ProcessingState, Integer> counts = new EnumMap<>(ProcessingState.class);
+        byState.forEach((state, events) -> counts.put(state, events.size()));
+        return counts;
+    }
+
+    public List<EventSummary> inState(ProcessingState state, int limit) {
+        List<EventSummary> result = new ArrayList<>(Math.min(limit, 64));
+        for (EventSummary summary : byState.get(state)) {
+            if (result.size() >= limit) {
+                break;
+            }
+            result.add(summary);
+        }
+        return result;
+    }
+
+    /**
+     * @return the version that has been parked the longest, or null if nothing is parked
+     */
+    public ParkedVersion oldestParked() {
+        return parkedByAge.isEmpty() ? null : parkedByAge.first();
+    }
+
+    public List<ParkedVersion> parked(int limit) {
+        return parkedByAge.stream().limit(limit).toList();
+    }
+
+    /**
+     * @return the objects blocked on a missing version, largest gap first
+     */
+    public List<BlockedObject> blocked(int limit) {
+        List<BlockedObject> result = new ArrayList<>(Math.min(limit, 64));
+        for (Set<String> objectIds : blockedByGap.values()) {
+            for (String objectId : objectIds) {
+                if (result.size() >= limit) {
+                    return result;
+                }
+                BlockedObject blockedObject = blocked.get(objectId);
+                if (blockedObject != null) {
+                    result.add(blockedObject);
+                }
+            }
+        }
+        return result;
+    }
+
+    public void clear() {
+        indexedStates.clear();
+        byState.values().forEach(Set::clear);
+        parked.clear();
+        parkedByAge.clear();
+        blocked.clear();
+        blockedByGap.clear();
+    }
+}
@@ -1,11 +1,16 @@
 package org.acme;
 
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.context.Scope;
 import io.quarkus.runtime.StartupEvent;
 import io.quarkus.vertx.ConsumeEvent;
 import io.smallrye.common.annotation.Blocking;
 import io.smallrye.mutiny.Uni;
+import io.vertx.core.MultiMap;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,12 +28,27 @@ public class Transformer {
 
     private final static Logger logger = LoggerFactory.getLogger(Transformer.class);
 
+    @Inject
+    PayloadStore payloadStore;
+
+    @Inject
+    EventTracing eventTracing;
+
     @ConsumeEvent(TRANSFORM_EVENTS)
     @Blocking
-    public Uni<VestEvent> transform(VestEvent event) {
-        try {
+    public Uni<VestEvent> transform(MultiMap headers, VestEvent event) {
+        Span span = eventTracing.startSpan("vest.transform", eventTracing.extract(headers), event);
+        try (Scope ignored = span.makeCurrent()) {
+            // Only the transformer and publisher need the XML so fetch it from the store here
+            VestEventPayload payload = payloadStore.get(event);
+            if (payload == null) {
+                // the version can't be recovered from here, fail it rather than transform nothing
+                throw new IllegalStateException("No payload held for event: " + event.getObjectId()
+                        + " version: " + event.getVersion());
+            }
+
             // TODO: Implement actual XSLT transformation here
-            String transformedXml = event.getInputXml(); // Placeholder for actual transformation
+            String transformedXml = payload.getInputXml(); // Placeholder for actual transformation
             
             // Validate against XSD
             validateXml(transformedXml);
@@ -36,7 +56,8 @@ public class Transformer {
             sleep(100);
 
             // Update event with transformed XML
-            event.setTransformedXml(transformedXml);
+            payload.setTransformedXml(transformedXml);
+            payload.setLastUpdated(System.currentTimeMillis());
             event.setState(ProcessingState.TRANSFORMED);
 
             log.info("Successfully transformed and validated XML for event: {} version: {}",
@@ -44,8 +65,12 @@ public class Transformer {
 
             return Uni.createFrom().item(event);
         } catch (Exception e) {
-            log.error("Error processing event: {}", event.getEventId(), e);
+            span.recordException(e);
+            span.setStatus(StatusCode.ERROR);
+            log.error("Error processing event: {} version: {}", event.getObjectId(), event.getVersion(), e);
             return Uni.createFrom().failure(e);
+        } finally {
+            span.end();
         }
     }
     
@@ -1,24 +1,51 @@
 package org.acme;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
 
-import java.util.Date;
-
+/**
+ * Sequencing header for an event version. This is all the {@link Processor} needs to make its
+ * sequencing decisions so it is kept deliberately small; the XML and audit fields live in a
+ * {@link VestEventPayload} held by the {@link PayloadStore} and are only fetched by the
+ * {@link Transformer} and {@link Publisher}.
+ */
 @ToString
 @Getter
 @Setter
 public class VestEvent {
 
-    private String          eventId;
-    private MessageGroup    messageGroup;
     private String          objectId;
     private long            version;
     private ProcessingState state;
-    private String          inputXml;
-    private String          transformedXml;
-    private Date            created;
-    private Date            lastUpdated;
+    private MessageGroup    messageGroup;
+
+    // Processor bookkeeping rather than part of the event: the dispatches and event bus hops that
+    // currently hold this instance. Only changed on the Processor's event loop, or before the
+    // event is handed to it.
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    int references;
+
+    // left the pipeline: superseded by a published version, or a duplicate or stale copy. It goes
+    // back to the pool once nothing references it any more.
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @ToString.Exclude
+    boolean retired;
+
+    /**
+     * Clear everything so the instance can go back in the {@link VestEventPool}.
+     */
+    void reset() {
+        objectId = null;
+        version = 0;
+        state = null;
+        messageGroup = null;
+        references = 0;
+        retired = false;
+    }
 
 }
@@ -0,0 +1,47 @@
+package org.acme;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * The bulky part of an event version. Stored in the {@link PayloadStore} rather than being carried
+ * along with the {@link VestEvent} header on every hop through the event bus.
+ */
+@ToString(exclude = {"inputXml", "transformedXml"})
+@Getter
+@Setter
+public class VestEventPayload {
+
+    private String eventId;
+    private String inputXml;
+    private String transformedXml;
+    // epoch millis, 0 when not set
+    private long   created;
+    private long   lastUpdated;
+
+    /**
+     * Detached copy, for when the original may be recycled while the copy is still being used.
+     */
+    VestEventPayload copy() {
+        VestEventPayload copy = new VestEventPayload();
+        copy.eventId = eventId;
+        copy.inputXml = inputXml;
+        copy.transformedXml = transformedXml;
+        copy.created = created;
+        copy.lastUpdated = lastUpdated;
+        return copy;
+    }
+
+    /**
+     * Clear everything so the instance can go back in the {@link VestEventPool}.
+     */
+    void reset() {
+        eventId = null;
+        inputXml = null;
+        transformedXml = null;
+        created = 0;
+        lastUpdated = 0;
+    }
+
+}
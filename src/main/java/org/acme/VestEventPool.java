@@ -0,0 +1,66 @@
+package org.acme;
+
+import jakarta.inject.Singleton;
+
+/**
+ * Recycles {@link VestEvent} headers and {@link VestEventPayload}s so that in steady state events
+ * don't have to be allocated for each new version.
+ * <p>
+ * An event is taken from the pool when it is created ({@link Processor#submit(String, long, String)})
+ * and given back by the {@link Processor} once it is done with it - when the version has dropped
+ * out of the history, or has been found to be a duplicate, and no dispatch or event bus hop still
+ * references it. Nothing may hold on to an event after it has been released. The pool is bounded;
+ * when it is empty new instances are allocated and when it is full released instances are left to
+ * the garbage collector.
+ */
+@Singleton
+public class VestEventPool {
+
+    static final int DEFAULT_CAPACITY = 4096;
+
+    private final VestEvent[]        events;
+    private final VestEventPayload[] payloads;
+    private int eventCount;
+    private int payloadCount;
+
+    public VestEventPool() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    VestEventPool(int capacity) {
+        events = new VestEvent[capacity];
+        payloads = new VestEventPayload[capacity];
+    }
+
+    public synchronized VestEvent acquire() {
+        if (eventCount == 0) {
+            return new VestEvent();
+        }
+        VestEvent event = events[--eventCount];
+        events[eventCount] = null;
+        return event;
+    }
+
+    public synchronized void release(VestEvent event) {
+        event.reset();
+        if (eventCount < events.length) {
+            events[eventCount++] = event;
+        }
+    }
+
+    public synchronized VestEventPayload acquirePayload() {
+        if (payloadCount == 0) {
+            return new VestEventPayload();
+        }
+        VestEventPayload payload = payloads[--payloadCount];
+        payloads[payloadCount] = null;
+        return payload;
+    }
+
+    public synchronized void releasePayload(VestEventPayload payload) {
+        payload.reset();
+        if (payloadCount < payloads.length) {
+            payloads[payloadCount++] = payload;
+        }
+    }
+}
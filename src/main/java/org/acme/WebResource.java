@@ -3,22 +3,18 @@ package org.acme;
 import io.smallrye.mutiny.Uni;
 import jakarta.ws.rs.GET;
 import jakarta.ws.rs.Path;
-import io.vertx.mutiny.core.eventbus.EventBus;
+import jakarta.ws.rs.ServiceUnavailableException;
 import jakarta.inject.Inject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Date;
-
-import static org.acme.Channels.INCOMING_EVENTS;
-
 @Path("/event/send")
 public class WebResource {
 
     private final static Logger logger = LoggerFactory.getLogger(WebResource.class);
 
     @Inject
-    EventBus eventBus;
+    Processor processor;
 
     /**
      * To create a new event via http
@@ -30,15 +26,10 @@ public class WebResource {
     @Path("{objectid}/{version}")
     public Uni<Void> send(final String objectid, final Integer version) {
 
-        // create a vest event
-        VestEvent vestEvent = new VestEvent();
-        vestEvent.setObjectId(objectid);
-        vestEvent.setVersion(version);
-        vestEvent.setInputXml("<test>Sample XML</test>");
-        vestEvent.setCreated(new Date());
-        vestEvent.setState(ProcessingState.FRESH);
-
-        eventBus.send(INCOMING_EVENTS, vestEvent);
+        if (!processor.submit(objectid, version, "<test>Sample XML</test>")) {
+            // shutting down, refuse it rather than lose it after responding
+            return Uni.createFrom().failure(new ServiceUnavailableException("Shutting down"));
+        }
         return Uni.createFrom().voidItem();
     }
 }
@@ -0,0 +1,253 @@
+package org.acme;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveLimiterTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveLimiterTest.class);
+
+    private static final long MILLIS = 1_000_000L;
+
+    @Test
+    void testLimitIsEnforced() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 2, 1, 10);
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+        limiter.cancel();
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    void testGrowsWhileLatencyIsFlatAndSaturated() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 4, 1, 64);
+        for (int i = 0; i < 200; i++) {
+            while (limiter.tryAcquire()) {
+                // fill every slot
+            }
+            limiter.onSuccess(10 * MILLIS);
+        }
+        assertEquals(64, limiter.getLimit());
+    }
+
+    @Test
+    void testDoesNotGrowWhenIdle() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 4, 1, 64);
+        for (int i = 0; i < 200; i++) {
+            limiter.tryAcquire();
+            limiter.onSuccess(10 * MILLIS);
+        }
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    void testBacksOffWhenLatencyRises() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 32, 1, 64);
+        limiter.tryAcquire();
+        limiter.onSuccess(10 * MILLIS);
+        for (int i = 0; i < 50; i++) {
+            limiter.tryAcquire();
+            limiter.onSuccess(40 * MILLIS);
+        }
+        assertTrue(limiter.getLimit() < 16, "limit should have come down, is " + limiter.getLimit());
+
+        int before = limiter.getLimit();
+        limiter.tryAcquire();
+        limiter.onDropped();
+        assertTrue(limiter.getLimit() < before);
+    }
+
+    @Test
+    void testDispatchStopsAtTheLimit() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("test", 2, 1, 10);
+        Deque<Integer> pending = new ArrayDeque<>(List.of(1, 2, 3));
+        List<Integer> sent = new ArrayList<>();
+
+        limiter.dispatch(pending, sent::add);
+        assertEquals(List.of(1, 2), sent);
+        assertEquals(2, limiter.getInFlight());
+
+        limiter.onSuccess(10 * MILLIS);
+        limiter.dispatch(pending, sent::add);
+        limiter.onSuccess(10 * MILLIS);
+        limiter.dispatch(pending, sent::add);
+        assertEquals(List.of(1, 2, 3), sent);
+        // the slot taken for the empty queue is handed back
+        assertEquals(1, limiter.getInFlight());
+    }
+
+    /**
+     * Benchmark, run in simulated time so it is quick and repeatable. A publisher with 4 workers
+     * normally takes 10ms per event; for 100s it slows to 70ms while events keep arriving at
+     * 100/s, more than it can keep up with. As on the event bus, a request that gets no reply
+     * within 30s fails and its event is not published, but the worker still processes it once it
+     * gets to it. Requests go out through {@link AdaptiveLimiter#dispatch} the way the
+     * {@link Processor} sends them.
+     * <p>
+     * Without a limit, which is how the processor used to send requests, the backlog builds up in
+     * the publisher where the timeout is running. Requests time out, events are lost and the
+     * workers spend their time on requests nobody is waiting for any more. With the adaptive limit
+     * the backlog waits in the processor instead and every event gets published. Lost events count
+     * as never arriving in the end to end latency.
+     */
+    @Test
+    void testEndToEndLatencyUnderSlowPublisher() {
+        Result unlimited = new Simulation(new AdaptiveLimiter("unlimited", 100_000, 100_000, 100_000)).run();
+        Result adaptive = new Simulation(new AdaptiveLimiter("adaptive", 8, 1, 64)).run();
+        logger.info("end to end p50/p99 (ms), publisher p99 (ms), published, timed out, wasted, final limit");
+        logger.info("unlimited: {}", unlimited);
+        logger.info("adaptive:  {}", adaptive);
+
+        assertTrue(unlimited.timedOut() > 0, "expected the unlimited publisher to time out: " + unlimited);
+        assertEquals(0, adaptive.timedOut());
+        assertEquals(Simulation.EVENTS, adaptive.published());
+        assertTrue(adaptive.endToEndP99() < unlimited.endToEndP99(),
+                "adaptive " + adaptive + " unlimited " + unlimited);
+        assertTrue(adaptive.publisherP99() * 10 < unlimited.publisherP99(),
+                "adaptive " + adaptive + " unlimited " + unlimited);
+    }
+
+    private record Result(long endToEndP50, long endToEndP99, long publisherP99, int published, int timedOut,
+                          int wasted, int finalLimit) {
+    }
+
+    private static final class Request {
+        private final long arrived;
+        private long sent;
+        private boolean replied;
+        private boolean timedOut;
+
+        private Request(long arrived) {
+            this.arrived = arrived;
+        }
+    }
+
+    private record Step(long time, long sequence, Runnable action) {
+    }
+
+    private static final class Simulation {
+
+        static final int  WORKERS          = 4;
+        static final long ARRIVAL_INTERVAL = 10 * MILLIS;
+        static final long DURATION         = 180_000 * MILLIS;
+        static final int  EVENTS           = (int) (DURATION / ARRIVAL_INTERVAL);
+        static final long SLOW_FROM        = 20_000 * MILLIS;
+        static final long SLOW_UNTIL       = 120_000 * MILLIS;
+        // the event bus default send timeout
+        static final long REQUEST_TIMEOUT  = 30_000 * MILLIS;
+
+        private final AdaptiveLimiter limiter;
+        private final PriorityQueue<Step> steps = new PriorityQueue<>(
+                Comparator.comparingLong(Step::time).thenComparingLong(Step::sequence));
+        private final Deque<Request> pending = new ArrayDeque<>();
+        private final Deque<Request> publisherQueue = new ArrayDeque<>();
+        private final List<Long> endToEnd = new ArrayList<>();
+        private final List<Long> publisherLatencies = new ArrayList<>();
+        private long now;
+        private long sequence;
+        private int busyWorkers;
+        private int timedOut;
+        private int wasted;
+
+        Simulation(AdaptiveLimiter limiter) {
+            this.limiter = limiter;
+        }
+
+        Result run() {
+            for (long time = 0; time < DURATION; time += ARRIVAL_INTERVAL) {
+                Request request = new Request(time);
+                at(time, () -> {
+                    pending.addLast(request);
+                    dispatch();
+                });
+            }
+            while (!steps.isEmpty()) {
+                Step step = steps.poll();
+                now = step.time();
+                step.action().run();
+            }
+
+            int published = endToEnd.size();
+            for (int i = published; i < EVENTS; i++) {
+                endToEnd.add(Long.MAX_VALUE);
+            }
+            Collections.sort(endToEnd);
+            Collections.sort(publisherLatencies);
+            return new Result(percentile(endToEnd, 0.5), percentile(endToEnd, 0.99),
+                    percentile(publisherLatencies, 0.99), published, timedOut, wasted, limiter.getLimit());
+        }
+
+        private void at(long time, Runnable action) {
+            steps.add(new Step(time, sequence++, action));
+        }
+
+        private void dispatch() {
+            limiter.dispatch(pending, this::send);
+        }
+
+        private void send(Request request) {
+            request.sent = now;
+            at(now + REQUEST_TIMEOUT, () -> timeout(request));
+            if (busyWorkers < WORKERS) {
+                startWork(request);
+            } else {
+                publisherQueue.addLast(request);
+            }
+        }
+
+        private void startWork(Request request) {
+            busyWorkers++;
+            at(now + serviceTime(now), () -> finishWork(request));
+        }
+
+        private void finishWork(Request request) {
+            busyWorkers--;
+            if (request.timedOut) {
+                wasted++;
+            } else {
+                request.replied = true;
+                limiter.onSuccess(now - request.sent);
+                publisherLatencies.add(now - request.sent);
+                endToEnd.add(now - request.arrived);
+            }
+            Request next = publisherQueue.pollFirst();
+            if (next != null) {
+                startWork(next);
+            }
+            dispatch();
+        }
+
+        private void timeout(Request request) {
+            if (request.replied) {
+                return;
+            }
+            request.timedOut = true;
+            timedOut++;
+            limiter.onDropped();
+            dispatch();
+        }
+
+        private static long serviceTime(long now) {
+            return (now >= SLOW_FROM && now < SLOW_UNTIL ? 70 : 10) * MILLIS;
+        }
+    }
+
+    private static long percentile(List<Long> sorted, double percentile) {
+        long value = sorted.get(Math.min(sorted.size() - 1, (int) (sorted.size() * percentile)));
+        return value == Long.MAX_VALUE ? value : value / MILLIS;
+    }
+}
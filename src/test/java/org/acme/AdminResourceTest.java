@@ -0,0 +1,40 @@
+package org.acme;
+
+import io.quarkus.test.common.http.TestHTTPResource;
+import io.quarkus.test.junit.QuarkusTest;
+import org.junit.jupiter.api.Test;
+
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@QuarkusTest
+class AdminResourceTest {
+
+    @TestHTTPResource("/admin/sequencing/")
+    URL baseUrl;
+
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+
+    @Test
+    void testLimitBelowOneIsRejected() throws Exception {
+        assertEquals(400, get("states/PUBLISHED?limit=0"));
+        assertEquals(400, get("blocked?limit=-1"));
+        assertEquals(400, get("parked?limit=-5"));
+    }
+
+    @Test
+    void testLargeLimitIsAccepted() throws Exception {
+        // capped rather than rejected
+        assertEquals(200, get("states/PUBLISHED?limit=" + Integer.MAX_VALUE));
+        assertEquals(200, get("parked?limit=100000"));
+    }
+
+    private int get(String path) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(baseUrl.toURI().resolve(path)).GET().build();
+        return httpClient.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+}
@@ -0,0 +1,104 @@
+package org.acme;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.acme.MessageGroup.GOPS_PARCEL_SUB;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Keeps an eye on how much the per-event bookkeeping allocates once it has warmed up: taking an
+ * event and payload from the pool, storing the payload, indexing the event through its states and
+ * releasing it all again. What is left is the map entries and keys of the store and the indexes,
+ * and the summary the index keeps for each state an event moves through.
+ * <p>
+ * Only that bookkeeping is covered. That the {@link Processor} reuses the headers and its Dispatches
+ * over whole FRESH to PUBLISHED cycles is checked by ProcessorTest; the hops over the event bus,
+ * their delivery options and trace headers, and the logging do allocate and are not budgeted.
+ */
+class AllocationBudgetTest {
+
+    // bytes allocated per event in steady state, measured at ~300
+    private static final long BYTES_PER_EVENT_BUDGET = 384;
+    private static final int  OBJECTS = 256;
+    private static final int  WARMUP  = 200_000;
+    private static final int  EVENTS  = 100_000;
+
+    private final VestEventPool   vestEventPool   = new VestEventPool();
+    private final PayloadStore    payloadStore    = new PayloadStore();
+    private final SequencingIndex sequencingIndex = new SequencingIndex();
+
+    private final String[] objectIds = new String[OBJECTS];
+    private final String   inputXml  = "<xml>input</xml>";
+
+    @Test
+    void testReleasedInstancesAreReused() {
+        VestEvent event = vestEventPool.acquire();
+        event.setObjectId("obj");
+        event.setVersion(3);
+        VestEventPayload payload = vestEventPool.acquirePayload();
+        payload.setInputXml(inputXml);
+        payload.setCreated(1L);
+
+        vestEventPool.release(event);
+        vestEventPool.releasePayload(payload);
+
+        VestEvent reused = vestEventPool.acquire();
+        assertSame(event, reused);
+        assertNull(reused.getObjectId());
+        assertEquals(0, reused.getVersion());
+        VestEventPayload reusedPayload = vestEventPool.acquirePayload();
+        assertSame(payload, reusedPayload);
+        assertNull(reusedPayload.getInputXml());
+        assertEquals(0, reusedPayload.getCreated());
+    }
+
+    @Test
+    void testSteadyStateAllocationBudget() {
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (int i = 0; i < OBJECTS; i++) {
+            objectIds[i] = "obj" + i;
+        }
+        long threadId = Thread.currentThread().threadId();
+
+        long version = run(0, WARMUP);
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        run(version, EVENTS);
+        long bytesPerEvent = (threadMXBean.getThreadAllocatedBytes(threadId) - before) / EVENTS;
+
+        assertEquals(0, payloadStore.size());
+        assertTrue(bytesPerEvent < BYTES_PER_EVENT_BUDGET,
+                "allocated " + bytesPerEvent + " bytes per event, budget is " + BYTES_PER_EVENT_BUDGET);
+    }
+
+    private long run(long version, int events) {
+        for (int i = 0; i < events; i++, version++) {
+            VestEvent event = vestEventPool.acquire();
+            event.setObjectId(objectIds[i % OBJECTS]);
+            event.setVersion(version);
+            event.setMessageGroup(GOPS_PARCEL_SUB);
+            event.setState(ProcessingState.RECEIVED);
+            VestEventPayload payload = vestEventPool.acquirePayload();
+            payload.setInputXml(inputXml);
+            payload.setCreated(version);
+            payloadStore.putIfAbsent(event, payload);
+            sequencingIndex.track(event);
+
+            payloadStore.get(event).setTransformedXml(inputXml);
+            event.setState(ProcessingState.TRANSFORMED);
+            sequencingIndex.track(event);
+            event.setState(ProcessingState.PUBLISHED);
+            sequencingIndex.track(event);
+
+            sequencingIndex.untrack(event);
+            vestEventPool.releasePayload(payloadStore.remove(event));
+            vestEventPool.release(event);
+        }
+        return version;
+    }
+}
@@ -0,0 +1,89 @@
+package org.acme;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.acme.MessageGroup.GOPS_PARCEL_SUB;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HistoryCheckpointTest {
+
+    @TempDir
+    Path tempDir;
+
+    HistoryCheckpoint historyCheckpoint;
+
+    @BeforeEach
+    void setup() {
+        historyCheckpoint = new HistoryCheckpoint();
+        historyCheckpoint.payloadStore = new PayloadStore();
+        historyCheckpoint.checkpointPath = Optional.of(tempDir.resolve("history.ckpt").toString());
+    }
+
+    @Test
+    void testRoundTrip() throws Exception {
+        Map<String, VestEventHistory> vestEventHistoryMap = new HashMap<>();
+        Map<VestEvent, VestEventPayload> payloads = new IdentityHashMap<>();
+        for (int i = 0; i < 100; i++) {
+            String objectId = "obj" + i;
+            var vestEventsMap = new HashMap<Long, VestEvent>();
+            for (long version = 2; version <= 3; version++) {
+                VestEvent vestEvent = new VestEvent();
+                vestEvent.setObjectId(objectId);
+                vestEvent.setVersion(version);
+                vestEvent.setMessageGroup(GOPS_PARCEL_SUB);
+                vestEvent.setState(version == 2 ? ProcessingState.PUBLISHED : ProcessingState.TRANSFORMED);
+                vestEventsMap.put(version, vestEvent);
+
+                // version 2 is published and processed, only version 3 still needs its payload
+                if (version == 3) {
+                    VestEventPayload payload = new VestEventPayload();
+                    payload.setInputXml("<xml>" + objectId + "</xml>");
+                    payload.setCreated(1_700_000_000_000L);
+                    payloads.put(vestEvent, payload);
+                }
+            }
+            vestEventHistoryMap.put(objectId, VestEventHistory.builder()
+                    .objectId(objectId)
+                    .messageGroup(GOPS_PARCEL_SUB)
+                    .lastProcessedVersion(2L)
+                    .vestEventsMap(vestEventsMap)
+                    .build());
+        }
+
+        historyCheckpoint.write(new HistoryCheckpoint.Snapshot(vestEventHistoryMap, payloads));
+        var restored = historyCheckpoint.load();
+
+        assertEquals(100, restored.size());
+        assertEquals(100, historyCheckpoint.payloadStore.size());
+        var vestEventHistory = restored.get("obj42");
+        assertEquals(2L, vestEventHistory.getLastProcessedVersion());
+        assertEquals(GOPS_PARCEL_SUB, vestEventHistory.getMessageGroup());
+        VestEvent vestEvent = vestEventHistory.getVestEventsMap().get(3L);
+        assertEquals(ProcessingState.TRANSFORMED, vestEvent.getState());
+        VestEventPayload payload = historyCheckpoint.payloadStore.get(vestEvent);
+        assertEquals("<xml>obj42</xml>", payload.getInputXml());
+        assertNull(payload.getTransformedXml());
+        assertEquals(1_700_000_000_000L, payload.getCreated());
+        assertEquals(0, payload.getLastUpdated());
+        assertNull(historyCheckpoint.payloadStore.get(vestEventHistory.getVestEventsMap().get(2L)));
+        // the checkpoint is consumed by the load
+        assertFalse(Files.exists(tempDir.resolve("history.ckpt")));
+    }
+
+    @Test
+    void testNoCheckpoint() throws Exception {
+        assertTrue(historyCheckpoint.load().isEmpty());
+    }
+}
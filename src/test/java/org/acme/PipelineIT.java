@@ -0,0 +1,49 @@
+package org.acme;
+
+import io.quarkus.test.common.WithTestResource;
+import io.quarkus.test.common.http.TestHTTPResource;
+import io.quarkus.test.junit.QuarkusIntegrationTest;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.Test;
+
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs against the packaged application, so with -Dnative it checks the native image end to end:
+ * the event bus consumers, the XML validation in the Transformer and the JSON admin API. The
+ * application gets a checkpoint of its own, so nothing published by an earlier run is restored.
+ */
+@QuarkusIntegrationTest
+@WithTestResource(TempCheckpointResource.class)
+class PipelineIT {
+
+    @TestHTTPResource("/")
+    URL baseUrl;
+
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+
+    @Test
+    void testEventIsPublished() throws Exception {
+        String objectId = "pipeline-it-" + UUID.randomUUID();
+        assertEquals(204, get("event/send/" + objectId + "/1").statusCode());
+
+        Awaitility.await().atMost(10, TimeUnit.SECONDS).untilAsserted(() -> {
+            HttpResponse<String> response = get("admin/sequencing/states/PUBLISHED");
+            assertEquals(200, response.statusCode());
+            assertTrue(response.body().contains("\"objectId\":\"" + objectId + "\""), response.body());
+        });
+    }
+
+    private HttpResponse<String> get(String path) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(baseUrl.toURI().resolve(path)).GET().build();
+        return httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
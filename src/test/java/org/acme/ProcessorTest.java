@@ -1,21 +1,32 @@
 package org.acme;
 
 import io.quarkus.test.junit.QuarkusTest;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
 import io.vertx.mutiny.core.Vertx;
 import io.vertx.mutiny.core.eventbus.EventBus;
 import jakarta.inject.Inject;
 import org.awaitility.Awaitility;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 import static org.acme.Channels.INCOMING_EVENTS;
 import static org.acme.MessageGroup.GOPS_PARCEL_SUB;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @QuarkusTest
@@ -26,6 +37,12 @@ class ProcessorTest {
     @Inject
     Processor processor;
 
+    @Inject
+    PayloadStore payloadStore;
+
+    @Inject
+    SequencingIndex sequencingIndex;
+
     @Inject
     EventBus eventBus;
 
@@ -36,6 +53,15 @@ class ProcessorTest {
     void setup() {
         // Clear the map before each test
         processor.vestEventHistoryMap.clear();
+        payloadStore.clear();
+        sequencingIndex.clear();
+        processor.openAdmission();
+    }
+
+    @AfterEach
+    void reopenAdmission() {
+        // the other test classes share this application and expect it to be taking events
+        processor.openAdmission();
     }
 
     @Test
@@ -46,7 +72,9 @@ class ProcessorTest {
         testEvent.setVersion(1);
         testEvent.setState(ProcessingState.FRESH);
         testEvent.setMessageGroup(GOPS_PARCEL_SUB);
-        testEvent.setInputXml("<xml>Content goes here </xml>");
+        VestEventPayload payload = new VestEventPayload();
+        payload.setInputXml("<xml>Content goes here </xml>");
+        payloadStore.putIfAbsent(testEvent, payload);
 
         CountDownLatch latch = new CountDownLatch(1);
 
@@ -59,6 +87,7 @@ class ProcessorTest {
                     assertTrue(processor.vestEventHistoryMap.containsKey("test123"));
                     var eventHistory = processor.vestEventHistoryMap.get("test123").getVestEventsMap();
                     assertEquals(ProcessingState.PUBLISHED, eventHistory.get(1L).getState());
+                    assertEquals("<xml>Content goes here </xml>", payloadStore.get(testEvent).getTransformedXml());
                     latch.countDown();
                 });
 
@@ -73,6 +102,7 @@ class ProcessorTest {
         event1.setVersion(1);
         event1.setMessageGroup(GOPS_PARCEL_SUB);
         event1.setState(ProcessingState.FRESH);
+        storePayload(event1);
 
         // Create version 2 event
         VestEvent event2 = new VestEvent();
@@ -80,6 +110,7 @@ class ProcessorTest {
         event2.setVersion(2);
         event2.setMessageGroup(GOPS_PARCEL_SUB);
         event2.setState(ProcessingState.FRESH);
+        storePayload(event2);
 
         CountDownLatch latch = new CountDownLatch(1);
 
@@ -116,6 +147,7 @@ class ProcessorTest {
         event1.setVersion(1);
         event1.setMessageGroup(GOPS_PARCEL_SUB);
         event1.setState(ProcessingState.FRESH);
+        storePayload(event1);
 
         // Create version 2 event
         VestEvent event2 = new VestEvent();
@@ -123,6 +155,7 @@ class ProcessorTest {
         event2.setVersion(2);
         event2.setMessageGroup(GOPS_PARCEL_SUB);
         event2.setState(ProcessingState.FRESH);
+        storePayload(event2);
 
         // Create version 3 event
         VestEvent event3 = new VestEvent();
@@ -130,6 +163,7 @@ class ProcessorTest {
         event3.setVersion(3);
         event3.setMessageGroup(GOPS_PARCEL_SUB);
         event3.setState(ProcessingState.FRESH);
+        storePayload(event3);
 
         CountDownLatch latch = new CountDownLatch(1);
 
@@ -165,6 +199,7 @@ class ProcessorTest {
         testEvent1.setVersion(1);
         testEvent1.setMessageGroup(GOPS_PARCEL_SUB);
         testEvent1.setState(ProcessingState.FRESH);
+        storePayload(testEvent1);
 
         VestEvent testEvent2 = new VestEvent();
         testEvent2.setObjectId("dupe");
@@ -191,4 +226,262 @@ class ProcessorTest {
         assertTrue(latch.await(2, TimeUnit.SECONDS));
 
     }
+
+    @Test
+    void testVersionWithoutPayloadIsNotTransformed() {
+        VestEvent event = new VestEvent();
+        event.setObjectId("noPayload");
+        event.setVersion(1);
+        event.setMessageGroup(GOPS_PARCEL_SUB);
+        event.setState(ProcessingState.FRESH);
+
+        eventBus.send(INCOMING_EVENTS, event);
+
+        // the transformer fails the version instead of transforming an empty payload
+        Awaitility.await().during(500, TimeUnit.MILLISECONDS).atMost(1, TimeUnit.SECONDS).until(() ->
+                processor.vestEventHistoryMap.containsKey("noPayload")
+                        && processor.vestEventHistoryMap.get("noPayload").getVestEventsMap().get(1L).getState()
+                        == ProcessingState.RECEIVED);
+    }
+
+    @Test
+    void testSubmitRefusedAfterStopAdmission() {
+        VestEvent event = freshEvent("refused", 1);
+        storePayload(event);
+
+        processor.stopAdmission();
+
+        assertFalse(processor.submit(event));
+        Awaitility.await().during(300, TimeUnit.MILLISECONDS).atMost(1, TimeUnit.SECONDS).until(() ->
+                !processor.vestEventHistoryMap.containsKey("refused"));
+    }
+
+    @Test
+    void testFreshEventHeldWhileShuttingDown() {
+        VestEvent event = freshEvent("held", 1);
+        storePayload(event);
+
+        // accepted before admission stopped, but only reaches the processor afterwards
+        processor.stopAdmission();
+        eventBus.send(INCOMING_EVENTS, event);
+
+        // kept as RECEIVED for the checkpoint instead of being dropped or sent on
+        Awaitility.await().during(500, TimeUnit.MILLISECONDS).atMost(1, TimeUnit.SECONDS).until(() ->
+                processor.vestEventHistoryMap.containsKey("held")
+                        && processor.vestEventHistoryMap.get("held").getVestEventsMap().get(1L).getState()
+                        == ProcessingState.RECEIVED);
+    }
+
+    @Test
+    void testAwaitDrainedWaitsForTheWholePipeline() throws InterruptedException {
+        VestEvent event = freshEvent("drained", 1);
+        storePayload(event);
+
+        assertTrue(processor.submit(event));
+        processor.stopAdmission();
+
+        assertTrue(processor.awaitDrained(Duration.ofSeconds(5)));
+        // nothing left to wait for, the version has been through post-publish
+        var vestEventHistory = processor.vestEventHistoryMap.get("drained");
+        assertEquals(ProcessingState.PUBLISHED, vestEventHistory.getVestEventsMap().get(1L).getState());
+        assertEquals(1L, vestEventHistory.getLastProcessedVersion());
+    }
+
+    @Test
+    void testSnapshotCopiesTheHistory() throws InterruptedException {
+        VestEvent version1 = freshEvent("snapshot", 1);
+        storePayload(version1);
+        assertTrue(processor.submit(version1));
+        assertTrue(processor.awaitDrained(Duration.ofSeconds(5)));
+        // version 2 arrives once admission has stopped and is held as RECEIVED
+        processor.stopAdmission();
+        VestEvent version2 = freshEvent("snapshot", 2);
+        storePayload(version2);
+        eventBus.send(INCOMING_EVENTS, version2);
+        Awaitility.await().atMost(1, TimeUnit.SECONDS).until(() ->
+                processor.vestEventHistoryMap.get("snapshot").getVestEventsMap().containsKey(2L));
+
+        HistoryCheckpoint.Snapshot snapshot = processor.snapshot();
+
+        var vestEventHistory = snapshot.histories().get("snapshot");
+        assertEquals(1L, vestEventHistory.getLastProcessedVersion());
+        VestEvent copy1 = vestEventHistory.getVestEventsMap().get(1L);
+        assertNotSame(version1, copy1);
+        assertEquals(ProcessingState.PUBLISHED, copy1.getState());
+        // published and processed, its payload is not needed after a restart
+        assertNull(snapshot.payloads().get(copy1));
+        VestEvent copy2 = vestEventHistory.getVestEventsMap().get(2L);
+        assertEquals(ProcessingState.RECEIVED, copy2.getState());
+        VestEventPayload payload = snapshot.payloads().get(copy2);
+        assertNotSame(payloadStore.get(version2), payload);
+        assertEquals("<xml>Content goes here </xml>", payload.getInputXml());
+    }
+
+    @Test
+    void testRestoreResumesThePipeline() {
+        // version 1 came back from the transformer and version 2 never got there before the restart
+        VestEvent version1 = restoredEvent("restored", 1, ProcessingState.TRANSFORMED);
+        VestEvent version2 = restoredEvent("restored", 2, ProcessingState.RECEIVED);
+        storePayload(version1);
+        storePayload(version2);
+        var vestEventsMap = HashMap.<Long, VestEvent>newHashMap(2);
+        vestEventsMap.put(1L, version1);
+        vestEventsMap.put(2L, version2);
+        Map<String, VestEventHistory> restored = new HashMap<>();
+        restored.put("restored", history("restored", 0L, vestEventsMap));
+
+        processor.restore(restored);
+
+        Awaitility.await().atMost(2, TimeUnit.SECONDS).untilAsserted(() -> {
+            var vestEventHistory = processor.vestEventHistoryMap.get("restored");
+            assertEquals(2L, vestEventHistory.getLastProcessedVersion());
+            assertEquals(ProcessingState.PUBLISHED, vestEventHistory.getVestEventsMap().get(2L).getState());
+        });
+    }
+
+    @Test
+    void testRestoreKeepsLiveHistory() {
+        VestEvent live = freshEvent("live", 1);
+        storePayload(live);
+        assertTrue(processor.submit(live));
+        Awaitility.await().atMost(2, TimeUnit.SECONDS).until(() ->
+                processor.vestEventHistoryMap.containsKey("live"));
+        VestEventHistory liveHistory = processor.vestEventHistoryMap.get("live");
+
+        var vestEventsMap = HashMap.<Long, VestEvent>newHashMap(1);
+        vestEventsMap.put(1L, restoredEvent("live", 1, ProcessingState.RECEIVED));
+        Map<String, VestEventHistory> restored = new HashMap<>();
+        restored.put("live", history("live", 0L, vestEventsMap));
+
+        processor.restore(restored);
+
+        assertSame(liveHistory, processor.vestEventHistoryMap.get("live"));
+    }
+
+    @Test
+    void testLateCopyOfReleasedVersionIsNotReadmitted() throws InterruptedException {
+        VestEvent version1 = freshEvent("late", 1);
+        VestEvent version2 = freshEvent("late", 2);
+        storePayload(version1);
+        storePayload(version2);
+        assertTrue(processor.submit(version1));
+        assertTrue(processor.awaitDrained(Duration.ofSeconds(5)));
+        assertTrue(processor.submit(version2));
+        assertTrue(processor.awaitDrained(Duration.ofSeconds(5)));
+        // version 1 has left the history and gone back to the pool
+        assertFalse(processor.vestEventHistoryMap.get("late").getVestEventsMap().containsKey(1L));
+
+        VestEvent lateCopy = freshEvent("late", 1);
+        storePayload(lateCopy);
+        assertTrue(processor.submit(lateCopy));
+        assertTrue(processor.awaitDrained(Duration.ofSeconds(5)));
+
+        var vestEventHistory = processor.vestEventHistoryMap.get("late");
+        assertFalse(vestEventHistory.getVestEventsMap().containsKey(1L));
+        assertEquals(2L, vestEventHistory.getLastProcessedVersion());
+        assertEquals(ProcessingState.PUBLISHED, vestEventHistory.getVestEventsMap().get(2L).getState());
+        // the late copy was released together with its own payload, the held version kept its payload
+        assertNull(payloadStore.get(freshEvent("late", 1)));
+        assertNotNull(payloadStore.get(version2));
+    }
+
+    @Test
+    void testDuplicateLeavesHeldVersionIntact() throws InterruptedException {
+        VestEvent original = freshEvent("held-dupe", 1);
+        storePayload(original);
+        assertTrue(processor.submit(original));
+        assertTrue(processor.awaitDrained(Duration.ofSeconds(5)));
+
+        // the payload store already holds version 1, so the duplicate only brings a header
+        VestEvent duplicate = freshEvent("held-dupe", 1);
+        assertTrue(processor.submit(duplicate));
+        assertTrue(processor.awaitDrained(Duration.ofSeconds(5)));
+
+        VestEvent held = processor.vestEventHistoryMap.get("held-dupe").getVestEventsMap().get(1L);
+        assertSame(original, held);
+        assertEquals("held-dupe", held.getObjectId());
+        assertEquals(ProcessingState.PUBLISHED, held.getState());
+        assertNotNull(payloadStore.get(original));
+        // the duplicate header went back to the pool
+        assertNull(duplicate.getObjectId());
+    }
+
+    @Test
+    void testOnlyTimeoutsAndMissingHandlersCountAsOverload() {
+        assertTrue(Processor.overloaded(new ReplyException(ReplyFailure.TIMEOUT, "timed out")));
+        assertTrue(Processor.overloaded(new ReplyException(ReplyFailure.NO_HANDLERS, "no handlers")));
+        assertFalse(Processor.overloaded(new ReplyException(ReplyFailure.RECIPIENT_FAILURE, "invalid xml")));
+        assertFalse(Processor.overloaded(new IllegalStateException("payload missing")));
+    }
+
+    @Test
+    void testFailingVersionsDoNotBackOffTheLimit() throws InterruptedException {
+        int limitBefore = processor.transformLimiter.getLimit();
+        // no payloads stored, so the transformer fails every one of them straight away
+        for (int version = 1; version <= 40; version++) {
+            assertTrue(processor.submit(freshEvent("failing", version)));
+        }
+        assertTrue(processor.awaitDrained(Duration.ofSeconds(5)));
+
+        // backing off on each would have taken it to the minimum: 0.9^40 of the limit
+        assertTrue(processor.transformLimiter.getLimit() >= limitBefore / 2,
+                "limit dropped from " + limitBefore + " to " + processor.transformLimiter.getLimit());
+    }
+
+    @Test
+    void testSteadyStateReusesEventsAndDispatches() throws InterruptedException {
+        // warm up the pools
+        for (int version = 1; version <= 50; version++) {
+            assertTrue(processor.submit("steady", version, "<xml>Content goes here </xml>"));
+            assertTrue(processor.awaitDrained(Duration.ofSeconds(5)));
+        }
+        int dispatchesCreated = processor.dispatchesCreated.get();
+
+        var vestEventsMap = processor.vestEventHistoryMap.get("steady").getVestEventsMap();
+        VestEvent recycled = null;
+        for (int version = 51; version <= 250; version++) {
+            // the previous version goes back to the pool once this one has been published
+            VestEvent previous = vestEventsMap.get(version - 1L);
+            assertTrue(processor.submit("steady", version, "<xml>Content goes here </xml>"));
+            assertTrue(processor.awaitDrained(Duration.ofSeconds(5)));
+            if (recycled != null) {
+                // and is taken from the pool again for the version after
+                assertSame(recycled, vestEventsMap.get((long) version));
+            }
+            recycled = previous;
+        }
+
+        assertEquals(dispatchesCreated, processor.dispatchesCreated.get());
+        assertEquals(250L, processor.vestEventHistoryMap.get("steady").getLastProcessedVersion());
+    }
+
+    private VestEvent freshEvent(String objectId, long version) {
+        return restoredEvent(objectId, version, ProcessingState.FRESH);
+    }
+
+    private VestEvent restoredEvent(String objectId, long version, ProcessingState state) {
+        VestEvent event = new VestEvent();
+        event.setObjectId(objectId);
+        event.setVersion(version);
+        event.setMessageGroup(GOPS_PARCEL_SUB);
+        event.setState(state);
+        return event;
+    }
+
+    private VestEventHistory history(String objectId, long lastProcessedVersion,
+                                     HashMap<Long, VestEvent> vestEventsMap) {
+        return VestEventHistory.builder()
+                .objectId(objectId)
+                .messageGroup(GOPS_PARCEL_SUB)
+                .lastProcessedVersion(lastProcessedVersion)
+                .vestEventsMap(vestEventsMap)
+                .build();
+    }
+
+    // the transformer and publisher need a payload for every version
+    private void storePayload(VestEvent event) {
+        VestEventPayload payload = new VestEventPayload();
+        payload.setInputXml("<xml>Content goes here </xml>");
+        payloadStore.putIfAbsent(event, payload);
+    }
 }
@@ -0,0 +1,110 @@
+package org.acme;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+
+import static org.acme.MessageGroup.GOPS_PARCEL_SUB;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SequencingIndexTest {
+
+    SequencingIndex sequencingIndex;
+
+    @BeforeEach
+    void setup() {
+        sequencingIndex = new SequencingIndex();
+    }
+
+    @Test
+    void testStateIndexFollowsTransitions() {
+        VestEvent event = event("obj", 1, ProcessingState.RECEIVED);
+        sequencingIndex.track(event);
+        assertEquals(1, sequencingIndex.inState(ProcessingState.RECEIVED, 10).size());
+
+        event.setState(ProcessingState.TRANSFORMED);
+        sequencingIndex.track(event);
+        assertTrue(sequencingIndex.inState(ProcessingState.RECEIVED, 10).isEmpty());
+        assertEquals(1, sequencingIndex.stateCounts().get(ProcessingState.TRANSFORMED));
+
+        sequencingIndex.untrack(event);
+        assertEquals(0, sequencingIndex.stateCounts().get(ProcessingState.TRANSFORMED));
+    }
+
+    @Test
+    void testStateQueryDoesNotReadTheEvent() {
+        VestEvent event = event("obj", 1, ProcessingState.PUBLISHED);
+        sequencingIndex.track(event);
+
+        // the event goes back to the pool and is reused while it is still indexed
+        event.reset();
+        event.setObjectId("reused");
+
+        SequencingIndex.EventSummary summary = sequencingIndex.inState(ProcessingState.PUBLISHED, 10).get(0);
+        assertEquals("obj", summary.objectId());
+        assertEquals(1, summary.version());
+        assertEquals(ProcessingState.PUBLISHED, summary.state());
+    }
+
+    @Test
+    void testOldestParkedFirst() throws InterruptedException {
+        VestEvent older = event("a", 3, ProcessingState.TRANSFORMED);
+        VestEvent newer = event("b", 5, ProcessingState.TRANSFORMED);
+        sequencingIndex.park(older, 1);
+        Thread.sleep(2);
+        sequencingIndex.park(newer, 2);
+
+        assertEquals("a", sequencingIndex.oldestParked().objectId());
+        assertEquals(2, sequencingIndex.parked(10).size());
+
+        sequencingIndex.unpark(older);
+        assertEquals("b", sequencingIndex.oldestParked().objectId());
+        sequencingIndex.unpark(newer);
+        assertNull(sequencingIndex.oldestParked());
+    }
+
+    @Test
+    void testBlockedByLargestGap() {
+        VestEventHistory small = history("small", 1, 3);
+        VestEventHistory large = history("large", 0, 6);
+        VestEventHistory inSequence = history("inSequence", 4, 5);
+        sequencingIndex.refreshGap(small);
+        sequencingIndex.refreshGap(large);
+        sequencingIndex.refreshGap(inSequence);
+
+        var blocked = sequencingIndex.blocked(10);
+        assertEquals(2, blocked.size());
+        assertEquals("large", blocked.get(0).objectId());
+        assertEquals(5, blocked.get(0).gap());
+        assertEquals("small", blocked.get(1).objectId());
+        assertEquals(1, blocked.get(1).gap());
+
+        // the missing version turns up
+        small.getVestEventsMap().put(2L, event("small", 2, ProcessingState.RECEIVED));
+        sequencingIndex.refreshGap(small);
+        assertEquals(1, sequencingIndex.blocked(10).size());
+    }
+
+    private static VestEvent event(String objectId, long version, ProcessingState state) {
+        VestEvent event = new VestEvent();
+        event.setObjectId(objectId);
+        event.setVersion(version);
+        event.setState(state);
+        event.setMessageGroup(GOPS_PARCEL_SUB);
+        return event;
+    }
+
+    private static VestEventHistory history(String objectId, long lastProcessedVersion, long heldVersion) {
+        var vestEventsMap = new HashMap<Long, VestEvent>();
+        vestEventsMap.put(heldVersion, event(objectId, heldVersion, ProcessingState.TRANSFORMED));
+        return VestEventHistory.builder()
+                .objectId(objectId)
+                .messageGroup(GOPS_PARCEL_SUB)
+                .lastProcessedVersion(lastProcessedVersion)
+                .vestEventsMap(vestEventsMap)
+                .build();
+    }
+}
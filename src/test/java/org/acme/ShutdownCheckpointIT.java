@@ -0,0 +1,106 @@
+package org.acme;
+
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Stops the packaged application the way a restarted instance is normally stopped, with SIGTERM,
+ * while events are still in the pipeline. Every version that was accepted has to be either
+ * published or held in the checkpoint together with its payload.
+ */
+class ShutdownCheckpointIT {
+
+    private static final int VERSIONS = 20;
+
+    @TempDir
+    Path tempDir;
+
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+    private Process application;
+
+    @AfterEach
+    void stopApplication() {
+        if (application != null) {
+            application.destroyForcibly();
+        }
+    }
+
+    @Test
+    void testSigtermWritesCheckpoint() throws Exception {
+        Path checkpoint = tempDir.resolve("vest-history.ckpt");
+        int port = freePort();
+        application = launch(port, checkpoint);
+        String baseUrl = "http://localhost:" + port + "/";
+        Awaitility.await().atMost(60, TimeUnit.SECONDS).ignoreExceptions().until(() ->
+                get(baseUrl + "admin/sequencing/states").statusCode() == 200);
+
+        String objectId = "shutdown-it-" + UUID.randomUUID();
+        for (int version = 1; version <= VERSIONS; version++) {
+            assertEquals(204, get(baseUrl + "event/send/" + objectId + "/" + version).statusCode());
+        }
+
+        // SIGTERM straight away, with versions still on their way through the pipeline
+        application.destroy();
+        assertTrue(application.waitFor(60, TimeUnit.SECONDS), "application did not shut down");
+
+        HistoryCheckpoint historyCheckpoint = new HistoryCheckpoint();
+        historyCheckpoint.payloadStore = new PayloadStore();
+        historyCheckpoint.checkpointPath = Optional.of(checkpoint.toString());
+        var vestEventHistory = historyCheckpoint.load().get(objectId);
+        assertNotNull(vestEventHistory, "no history checkpointed for " + objectId);
+        for (long version = vestEventHistory.getLastProcessedVersion() + 1; version <= VERSIONS; version++) {
+            VestEvent vestEvent = vestEventHistory.getVestEventsMap().get(version);
+            assertNotNull(vestEvent, "version " + version + " was lost");
+            assertNotNull(historyCheckpoint.payloadStore.get(vestEvent), "payload of version " + version + " was lost");
+        }
+    }
+
+    private Process launch(int port, Path checkpoint) throws IOException {
+        List<String> command = new ArrayList<>();
+        Path nativeImage = Path.of(System.getProperty("native.image.path", "target/vest-vertx-runner"));
+        if (Files.isExecutable(nativeImage)) {
+            command.add(nativeImage.toString());
+        } else {
+            command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+            command.add("-jar");
+            command.add("target/quarkus-app/quarkus-run.jar");
+        }
+        ProcessBuilder processBuilder = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(tempDir.resolve("application.log").toFile());
+        processBuilder.environment().put("QUARKUS_HTTP_PORT", Integer.toString(port));
+        processBuilder.environment().put("VEST_CHECKPOINT_PATH", checkpoint.toString());
+        return processBuilder.start();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private HttpResponse<String> get(String url) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url)).GET().build();
+        return httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,42 @@
+package org.acme;
+
+import io.quarkus.test.common.QuarkusTestResourceLifecycleManager;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Points the launched application at a checkpoint in a fresh temporary directory, so it never
+ * restores history left behind by an earlier run.
+ */
+public class TempCheckpointResource implements QuarkusTestResourceLifecycleManager {
+
+    private Path checkpointDir;
+
+    @Override
+    public Map<String, String> start() {
+        try {
+            checkpointDir = Files.createTempDirectory("vest-checkpoint");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Map.of("vest.checkpoint.path", checkpointDir.resolve("vest-history.ckpt").toString());
+    }
+
+    @Override
+    public void stop() {
+        if (checkpointDir == null) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(checkpointDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package org.acme;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.SpanContext;
+import io.opentelemetry.api.trace.TraceFlags;
+import io.opentelemetry.api.trace.TraceState;
+import io.opentelemetry.context.Context;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.sdk.testing.exporter.InMemorySpanExporter;
+import io.opentelemetry.sdk.trace.IdGenerator;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.quarkus.test.junit.QuarkusTest;
+import io.vertx.mutiny.core.eventbus.EventBus;
+import jakarta.inject.Inject;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.acme.Channels.INCOMING_EVENTS;
+import static org.acme.MessageGroup.GOPS_PARCEL_SUB;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@QuarkusTest
+class TracingTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(TracingTest.class);
+
+    // versions sent at once when measuring the overhead, one each of this many objects
+    private static final int OVERHEAD_BATCH = 200;
+
+    @Inject
+    Processor processor;
+
+    @Inject
+    PayloadStore payloadStore;
+
+    @Inject
+    EventBus eventBus;
+
+    @Inject
+    InMemorySpanExporter spanExporter;
+
+    @BeforeEach
+    void setup() {
+        processor.vestEventHistoryMap.clear();
+        payloadStore.clear();
+        spanExporter.reset();
+    }
+
+    @Test
+    void testVersionIsTracedAcrossHops() {
+        VestEvent event = new VestEvent();
+        event.setObjectId("traced");
+        event.setVersion(1);
+        event.setMessageGroup(GOPS_PARCEL_SUB);
+        event.setState(ProcessingState.FRESH);
+        storePayload(event);
+
+        eventBus.send(INCOMING_EVENTS, event);
+
+        // FRESH -> transform -> TRANSFORMED -> publish -> PUBLISHED
+        Awaitility.await().atMost(3, TimeUnit.SECONDS).untilAsserted(() -> {
+            List<SpanData> spans = spansFor("traced", 1L);
+            assertEquals(3, spans.stream().filter(span -> span.getName().equals("vest.process")).count());
+            assertTrue(spans.stream().anyMatch(span -> span.getName().equals("vest.transform")));
+            assertTrue(spans.stream().anyMatch(span -> span.getName().equals("vest.publish")));
+            assertEquals(1, spans.stream().map(SpanData::getTraceId).distinct().count());
+        });
+    }
+
+    @Test
+    void testParkedVersionStaysInItsTrace() {
+        VestEvent event1 = new VestEvent();
+        event1.setObjectId("parked");
+        event1.setVersion(1);
+        event1.setMessageGroup(GOPS_PARCEL_SUB);
+        event1.setState(ProcessingState.FRESH);
+        storePayload(event1);
+
+        VestEvent event2 = new VestEvent();
+        event2.setObjectId("parked");
+        event2.setVersion(2);
+        event2.setMessageGroup(GOPS_PARCEL_SUB);
+        event2.setState(ProcessingState.FRESH);
+        storePayload(event2);
+
+        // version 2 gets transformed first and has to wait for version 1
+        eventBus.send(INCOMING_EVENTS, event2);
+        eventBus.send(INCOMING_EVENTS, event1);
+
+        Awaitility.await().atMost(3, TimeUnit.SECONDS).untilAsserted(() -> {
+            List<SpanData> spans = spansFor("parked", 2L);
+            assertTrue(spans.stream().anyMatch(span -> span.getName().equals("vest.publish")));
+            assertTrue(spans.stream().flatMap(span -> span.getEvents().stream())
+                    .anyMatch(spanEvent -> spanEvent.getName().equals("waiting for predecessor")));
+            assertEquals(1, spans.stream().map(SpanData::getTraceId).distinct().count());
+        });
+    }
+
+    /**
+     * What tracing costs per version: the same batch of versions is run through the whole pipeline
+     * under a sampled and under an unsampled parent. With the parent-based sampler the unsampled
+     * batch records nothing, so the difference between the two is the cost of the spans.
+     */
+    @Test
+    void testTracingOverhead() throws InterruptedException {
+        // warm up both paths first, and let the spans of the warm up be exported
+        runBatch("overhead-warmup-traced", TraceFlags.getSampled());
+        runBatch("overhead-warmup-untraced", TraceFlags.getDefault());
+        awaitSpans(5 * OVERHEAD_BATCH);
+
+        long tracedNanos = Long.MAX_VALUE;
+        long untracedNanos = Long.MAX_VALUE;
+        int spans = 0;
+        for (int round = 0; round < 3; round++) {
+            spanExporter.reset();
+            untracedNanos = Math.min(untracedNanos, runBatch("overhead-untraced-" + round, TraceFlags.getDefault()));
+            // nothing is recorded under an unsampled parent
+            assertEquals(0, spanExporter.getFinishedSpanItems().size());
+
+            tracedNanos = Math.min(tracedNanos, runBatch("overhead-traced-" + round, TraceFlags.getSampled()));
+            // vest.process for FRESH, TRANSFORMED and PUBLISHED, plus vest.transform and vest.publish
+            awaitSpans(5 * OVERHEAD_BATCH);
+            spans = spanExporter.getFinishedSpanItems().size();
+        }
+
+        logger.info("Tracing overhead: {} us per version traced, {} us untraced, {} spans per version",
+                tracedNanos / OVERHEAD_BATCH / 1_000, untracedNanos / OVERHEAD_BATCH / 1_000,
+                spans / OVERHEAD_BATCH);
+    }
+
+    private void awaitSpans(int atLeast) {
+        Awaitility.await().atMost(2, TimeUnit.SECONDS).until(() ->
+                spanExporter.getFinishedSpanItems().size() >= atLeast);
+    }
+
+    private long runBatch(String prefix, TraceFlags traceFlags) throws InterruptedException {
+        SpanContext parent = SpanContext.create(IdGenerator.random().generateTraceId(),
+                IdGenerator.random().generateSpanId(), traceFlags, TraceState.getDefault());
+        long start = System.nanoTime();
+        try (Scope ignored = Context.root().with(Span.wrap(parent)).makeCurrent()) {
+            for (int i = 0; i < OVERHEAD_BATCH; i++) {
+                assertTrue(processor.submit(prefix + "-" + i, 1, "<xml/>"));
+            }
+        }
+        assertTrue(processor.awaitDrained(Duration.ofSeconds(10)));
+        return System.nanoTime() - start;
+    }
+
+    private List<SpanData> spansFor(String objectId, long version) {
+        return spanExporter.getFinishedSpanItems().stream()
+                .filter(span -> objectId.equals(span.getAttributes().get(EventTracing.OBJECT_ID)))
+                .filter(span -> Long.valueOf(version).equals(span.getAttributes().get(EventTracing.VERSION)))
+                .toList();
+    }
+
+    private void storePayload(VestEvent event) {
+        VestEventPayload payload = new VestEventPayload();
+        payload.setInputXml("<xml/>");
+        payloadStore.putIfAbsent(event, payload);
+    }
+}